@@ -11,7 +11,9 @@ package tileworld;
  * Description:
  *
  * Class used to store global simulation parameters.
- * Environment related parameters are still in the TWEnvironment class.
+ * These are only the defaults of TWConfig; the simulation reads its settings
+ * from the TWConfig given to TWEnvironment, so change them there (or with a
+ * config file or command line arguments) rather than here.
  *
  */
 public class Parameters {
@@ -0,0 +1,275 @@
+package tileworld;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+/**
+ * TWConfig
+ *
+ * Description:
+ *
+ * Settings of one simulation run: world size, agents, sensor range, object
+ * spawn rates and lifetime. A TWEnvironment is built from one of these and
+ * everything below it reads the settings through the environment, so a
+ * single build can run any world size.
+ *
+ * Defaults are the values in Parameters. They can be overridden from a
+ * properties file and from the command line, which wins over the file:
+ *
+ *   java tileworld.TileworldMain -config big.properties -agentCount 200
+ *
+ * Keys are the same in both places: seed, endTime, fuelLevel, sensorRange,
+ * xDimension, yDimension, tileMean, tileDev, holeMean, holeDev, obstacleMean,
+ * obstacleDev, lifeTime, agentCount, agentType (MyAgent or SimpleTWAgent),
+ * commRadius (how far located messages carry, 0 for the whole world) and
+ * sensingThreads (0 for every agent sensing on its own, otherwise the number
+ * of threads of the batched TWSensingPass).
+ * Other command line arguments are left alone, so the MASON ones (-for,
+ * -repeat, ...) can be passed along.
+ */
+public class TWConfig {
+
+    private static final String[] KEYS = {"seed", "endTime", "fuelLevel", "sensorRange",
+        "xDimension", "yDimension", "tileMean", "tileDev", "holeMean", "holeDev",
+        "obstacleMean", "obstacleDev", "lifeTime", "agentCount", "agentType", "commRadius",
+        "sensingThreads"};
+    /** agent types TWEnvironment can create */
+    private static final String[] AGENT_TYPES = {"MyAgent", "SimpleTWAgent"};
+
+    //Simulation
+    private long seed = Parameters.seed;
+    private long endTime = Parameters.endTime;
+
+    //Agents
+    private int fuelLevel = Parameters.defaultFuelLevel;
+    private int sensorRange = Parameters.defaultSensorRange;
+    private int agentCount = 4;
+    private String agentType = "MyAgent";
+    private int commRadius = 0;
+    private int sensingThreads = 0;
+
+    //Environment
+    private int xDimension = Parameters.xDimension;
+    private int yDimension = Parameters.yDimension;
+
+    //Objects
+    private double tileMean = Parameters.tileMean;
+    private double holeMean = Parameters.holeMean;
+    private double obstacleMean = Parameters.obstacleMean;
+    private double tileDev = Parameters.tileDev;
+    private double holeDev = Parameters.holeDev;
+    private double obstacleDev = Parameters.obstacleDev;
+    private int lifeTime = Parameters.lifeTime;
+
+    /**
+     * A configuration holding the defaults from Parameters.
+     */
+    public TWConfig() {
+    }
+
+    /**
+     * @param file properties file, keys as listed above
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a value is malformed or out of range
+     */
+    public static TWConfig load(File file) throws IOException {
+        Properties p = new Properties();
+        try (Reader in = new FileReader(file)) {
+            p.load(in);
+        }
+        TWConfig config = new TWConfig();
+        config.apply(p);
+        return config;
+    }
+
+    /**
+     * Reads "-config file" if given, then every "-key value" pair on top of
+     * it.
+     *
+     * @throws IOException if the config file cannot be read
+     * @throws IllegalArgumentException if a value is malformed or out of range
+     */
+    public static TWConfig fromArgs(String[] args) throws IOException {
+        TWConfig config = new TWConfig();
+        Properties p = new Properties();
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-config")) {
+                config = load(new File(args[i + 1]));
+            } else if (args[i].startsWith("-") && isKey(args[i].substring(1))) {
+                p.setProperty(args[i].substring(1), args[i + 1]);
+            }
+        }
+        config.apply(p);
+        return config;
+    }
+
+    /**
+     * Overrides the settings named in p, leaves the others as they are.
+     *
+     * @throws IllegalArgumentException if a value is malformed or out of range
+     */
+    public void apply(Properties p) {
+        for (String key : KEYS) {
+            String value = p.getProperty(key);
+            if (value == null) {
+                continue;
+            }
+            value = value.trim();
+            try {
+                set(key, value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value for " + key + ": " + value, e);
+            }
+        }
+        validate();
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+            case "seed": seed = Long.parseLong(value); break;
+            case "endTime": endTime = Long.parseLong(value); break;
+            case "fuelLevel": fuelLevel = Integer.parseInt(value); break;
+            case "sensorRange": sensorRange = Integer.parseInt(value); break;
+            case "xDimension": xDimension = Integer.parseInt(value); break;
+            case "yDimension": yDimension = Integer.parseInt(value); break;
+            case "tileMean": tileMean = Double.parseDouble(value); break;
+            case "tileDev": tileDev = Double.parseDouble(value); break;
+            case "holeMean": holeMean = Double.parseDouble(value); break;
+            case "holeDev": holeDev = Double.parseDouble(value); break;
+            case "obstacleMean": obstacleMean = Double.parseDouble(value); break;
+            case "obstacleDev": obstacleDev = Double.parseDouble(value); break;
+            case "lifeTime": lifeTime = Integer.parseInt(value); break;
+            case "agentCount": agentCount = Integer.parseInt(value); break;
+            case "commRadius": commRadius = Integer.parseInt(value); break;
+            case "sensingThreads": sensingThreads = Integer.parseInt(value); break;
+            case "agentType": agentType = value; break;
+            default: throw new IllegalArgumentException("Unknown key: " + key);
+        }
+    }
+
+    private static boolean isKey(String s) {
+        return contains(KEYS, s);
+    }
+
+    private static boolean contains(String[] values, String s) {
+        for (String value : values) {
+            if (value.equals(s)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void validate() {
+        if (xDimension <= 0 || yDimension <= 0) {
+            throw new IllegalArgumentException("World size must be positive: " + xDimension + "x" + yDimension);
+        }
+        //cells are packed as x << 16 | y in paths
+        if (xDimension > 0xffff || yDimension > 0xffff) {
+            throw new IllegalArgumentException("World size is limited to 65535 cells a side");
+        }
+        if (agentCount < 0 || sensorRange < 0 || fuelLevel < 0 || commRadius < 0) {
+            throw new IllegalArgumentException("agentCount, sensorRange, fuelLevel and commRadius must not be negative");
+        }
+        if (sensingThreads < 0) {
+            throw new IllegalArgumentException("sensingThreads must not be negative: " + sensingThreads);
+        }
+        if (lifeTime <= 0) {
+            throw new IllegalArgumentException("lifeTime must be positive: " + lifeTime);
+        }
+        if (!contains(AGENT_TYPES, agentType)) {
+            throw new IllegalArgumentException("Unknown agentType: " + agentType);
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public int getFuelLevel() {
+        return fuelLevel;
+    }
+
+    public int getSensorRange() {
+        return sensorRange;
+    }
+
+    public int getAgentCount() {
+        return agentCount;
+    }
+
+    public String getAgentType() {
+        return agentType;
+    }
+
+    /**
+     * @return how far located messages carry, 0 for no limit
+     */
+    public int getCommRadius() {
+        return commRadius;
+    }
+
+    /**
+     * @return threads of the batched sensing pass, 0 if agents sense on
+     * their own
+     */
+    public int getSensingThreads() {
+        return sensingThreads;
+    }
+
+    public int getxDimension() {
+        return xDimension;
+    }
+
+    public int getyDimension() {
+        return yDimension;
+    }
+
+    public double getTileMean() {
+        return tileMean;
+    }
+
+    public double getTileDev() {
+        return tileDev;
+    }
+
+    public double getHoleMean() {
+        return holeMean;
+    }
+
+    public double getHoleDev() {
+        return holeDev;
+    }
+
+    public double getObstacleMean() {
+        return obstacleMean;
+    }
+
+    public double getObstacleDev() {
+        return obstacleDev;
+    }
+
+    public int getLifeTime() {
+        return lifeTime;
+    }
+
+    @Override
+    public String toString() {
+        return xDimension + "x" + yDimension + " world, " + agentCount + " " + agentType
+                + ", sensor range " + sensorRange + ", fuel " + fuelLevel
+                + ", spawn " + tileMean + "/" + holeMean + "/" + obstacleMean
+                + ", lifetime " + lifeTime + ", comm radius " + commRadius
+                + ", sensing threads " + sensingThreads + ", " + endTime + " steps";
+    }
+}
@@ -1,8 +1,10 @@
 package tileworld;
 
 import java.awt.Color;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.swing.JFrame;
 import sim.display.Console;
 import sim.display.Controller;
@@ -94,16 +96,17 @@ public class TWGUI extends GUIState {
         
       
         // tell the portrayals what to portray and how to portray them
-        objectGridPortrayal.setField(((TWEnvironment) state).getObjectGrid());
+        objectGridPortrayal.setField(((TWEnvironment) state).getObjectGrid().getDisplayGrid());
 
 
-        agentGridPortrayal.setField(((TWEnvironment) state).getAgentGrid());
+        agentGridPortrayal.setField(((TWEnvironment) state).getAgentGrid().getDisplayGrid());
 
-        agentGridPortrayal.setPortrayalForClass(TWAgent.class, TWAgent.getPortrayal());
+        int sensorRange = ((TWEnvironment) state).getConfig().getSensorRange();
+        agentGridPortrayal.setPortrayalForClass(TWAgent.class, TWAgent.getPortrayal(sensorRange));
 
 
        // gridPortrayal.setPortrayalForClass(SimpleTWAgent.class, TWAgent.getPortrayal());
-        agentGridPortrayal.setPortrayalForRemainder(TWAgent.getPortrayal());
+        agentGridPortrayal.setPortrayalForRemainder(TWAgent.getPortrayal(sensorRange));
 
         objectGridPortrayal.setPortrayalForClass(TWHole.class, TWHole.getPortrayal());
         objectGridPortrayal.setPortrayalForClass(TWTile.class, TWTile.getPortrayal());
@@ -160,11 +163,13 @@ public class TWGUI extends GUIState {
     /**
      * Main method called when running Tileworld with a visual display. It is
      * possible to run without any display - see
-     * @param args
+     * @param args world settings, see TWConfig; the seed is still random
+     * @throws IOException if a -config file cannot be read
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
-        TWGUI twGui = new TWGUI();
+        TWConfig config = TWConfig.fromArgs(args);
+        TWGUI twGui = new TWGUI(new TWEnvironment(ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE), config));
 
         Console c = new Console(twGui);
         c.setVisible(true);
@@ -204,7 +209,7 @@ public class TWGUI extends GUIState {
      */
     public void addMemoryPortrayal(TWAgent agent) {
         ObjectGridPortrayal2D memoryPortrayal = new ObjectGridPortrayal2D();
-        memoryPortrayal.setField(agent.getMemory().getMemoryGrid());
+        memoryPortrayal.setField(agent.getMemory().getMemoryGrid().getDisplayGrid());
         memoryPortrayal.setPortrayalForClass(TWHole.class, TWHole.getMemoryPortrayal());
         memoryPortrayal.setPortrayalForClass(TWTile.class, TWTile.getPortrayal());
         memoryPortrayal.setPortrayalForClass(TWObstacle.class, TWObstacle.getPortrayal());
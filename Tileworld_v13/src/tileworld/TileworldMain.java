@@ -6,6 +6,7 @@ package tileworld;
 
 import sim.engine.SimState;
 import tileworld.environment.TWEnvironment;
+import java.io.IOException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
@@ -25,18 +26,24 @@ import java.util.concurrent.TimeUnit;
  */
 public class TileworldMain {
 	
-	public static void main(String args[]) throws InterruptedException {
+	/**
+	 * Runs ten worlds with random seeds and prints the average reward.
+	 * @param args world settings, see TWConfig
+	 */
+	public static void main(String args[]) throws InterruptedException, IOException {
+		TWConfig config = TWConfig.fromArgs(args);
+		System.out.println(config);
 		int overallScore = 0; 
 		int iteration = 10;
 		for(int i = 0; i<iteration; i++) {
 			int seed = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
 			System.out.println("Seed: "+seed);
-			TWEnvironment tw = new TWEnvironment(seed);
+			TWEnvironment tw = new TWEnvironment(seed, config);
 			tw.start();
 
 			long steps = 0;
 
-			while (steps < Parameters.endTime) {
+			while (steps < config.getEndTime()) {
 				if (!tw.schedule.step(tw)) {
 					break;
 				}
@@ -51,14 +58,15 @@ public class TileworldMain {
 		System.exit(0);  // make sure any threads finish up
     }
 
-    public static void main4(String args[]) {
+    public static void main4(String args[]) throws IOException {
 
-        TWEnvironment tw = new TWEnvironment(Parameters.seed);
+        TWConfig config = TWConfig.fromArgs(args);
+        TWEnvironment tw = new TWEnvironment(config);
         tw.start();
 
         long steps = 0;
 
-        while (steps < Parameters.endTime) {
+        while (steps < config.getEndTime()) {
 
             if (!tw.schedule.step(tw)) {
                 break;
@@ -0,0 +1,153 @@
+package tileworld.agent;
+
+import java.util.Arrays;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWEntity;
+import tileworld.environment.TWMessageBus;
+
+/**
+ * CompactMessage
+ *
+ * Description:
+ *
+ * The small form of a MyCommunication: the sender as its reader index on the
+ * message bus, the type as an enum ordinal, the cell packed as x << 16 | y,
+ * the entity's TWCellType and a bitset of the readers that have processed
+ * it. There are no strings, timestamps or lists to build, so sending one
+ * costs nothing but filling in the fields.
+ *
+ * Instances belong to a TWMessageBus and come from its per step arena
+ * (TWMessageBus.obtain); they are handed out again after the bus is cleared,
+ * so a receiver must not keep one beyond the step it was sent in.
+ */
+public class CompactMessage extends Message implements EntityMessage {
+
+    private static final MyCommunication.MessageType[] TYPES = MyCommunication.MessageType.values();
+    private static final String[] CONTENTS = new String[TYPES.length];
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            CONTENTS[i] = MyCommunication.describe(TYPES[i]);
+        }
+    }
+
+    private final TWMessageBus bus;
+    private int sender;
+    private byte type;
+    private int cell;
+    private byte entityType;
+    private TWEntity entity;
+    /** bit r set once reader r has processed the message */
+    private long[] processedBy = new long[1];
+
+    public CompactMessage(TWMessageBus bus) {
+        super(null, null, null);
+        this.bus = bus;
+    }
+
+    /**
+     * Fills the message in, clearing whatever it held before.
+     *
+     * @param sender the sender's reader index on the bus
+     * @param entity the entity the message is about, not null
+     * @return this
+     */
+    public CompactMessage set(int sender, MyCommunication.MessageType type, TWEntity entity) {
+        set(sender, type, entity.getX(), entity.getY(), TWCellType.of(entity));
+        this.entity = entity;
+        return this;
+    }
+
+    /**
+     * Fills the message in for a cell rather than an entity, for news about
+     * an entity the sender no longer has a live reference to (a pooled
+     * object may already be at another cell). getDiscoveredEntity is null.
+     *
+     * @param sender the sender's reader index on the bus
+     * @param cellType the TWCellType of the entity the message is about
+     * @return this
+     */
+    public CompactMessage set(int sender, MyCommunication.MessageType type, int x, int y, byte cellType) {
+        this.sender = sender;
+        this.type = (byte) type.ordinal();
+        this.cell = (x << 16) | y;
+        this.entityType = cellType;
+        this.entity = null;
+        int words = (bus.getReaderCount() + 63) >> 6;
+        if (processedBy.length < words) {
+            processedBy = new long[words];
+        } else {
+            Arrays.fill(processedBy, 0L);
+        }
+        return this;
+    }
+
+    public int getSender() {
+        return sender;
+    }
+
+    public MyCommunication.MessageType getMessageType() {
+        return TYPES[type];
+    }
+
+    public int getX() {
+        return cell >>> 16;
+    }
+
+    public int getY() {
+        return cell & 0xffff;
+    }
+
+    /**
+     * @return the TWCellType of the entity
+     */
+    public byte getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * @return the entity, null if the message was filled in for a cell
+     */
+    public TWEntity getDiscoveredEntity() {
+        return entity;
+    }
+
+    public boolean isProcessedBy(int reader) {
+        int w = reader >> 6;
+        return w < processedBy.length && (processedBy[w] & (1L << reader)) != 0;
+    }
+
+    public void markProcessedBy(int reader) {
+        int w = reader >> 6;
+        if (w >= processedBy.length) {
+            //reader registered after the message was filled in
+            processedBy = Arrays.copyOf(processedBy, w + 1);
+        }
+        processedBy[w] |= 1L << reader;
+    }
+
+    public String getSenderId() {
+        return bus.getReaderName(sender);
+    }
+
+    @Override
+    public String getFrom() {
+        return getSenderId();
+    }
+
+    /**
+     * @return null, compact messages go to everyone in range
+     */
+    @Override
+    public String getTo() {
+        return null;
+    }
+
+    /**
+     * @return the same content a MyCommunication of this type carries
+     */
+    @Override
+    public String getMessage() {
+        return CONTENTS[type];
+    }
+}
@@ -0,0 +1,24 @@
+package tileworld.agent;
+
+import tileworld.environment.TWEntity;
+
+/**
+ * EntityMessage
+ *
+ * Description:
+ *
+ * A message about one entity of the world, in either of its two forms: the
+ * descriptive MyCommunication or the pooled CompactMessage. Receivers and the
+ * message bus only need these three things from it.
+ */
+public interface EntityMessage {
+
+    MyCommunication.MessageType getMessageType();
+
+    /**
+     * @return the entity the message is about, null if none
+     */
+    TWEntity getDiscoveredEntity();
+
+    String getSenderId();
+}
@@ -1,27 +1,31 @@
 package tileworld.agent;
 
 import tileworld.environment.TWDirection;
+import tileworld.environment.TWDistanceField;
 import tileworld.environment.TWEnvironment;
 import tileworld.environment.TWFuelStation;
 import tileworld.environment.TWEntity;
 import tileworld.planners.MyPlanner;
+import tileworld.planners.NearestObjectFinder;
 import tileworld.planners.TWPath;
-import tileworld.planners.TWPathStep;
 import tileworld.exceptions.CellBlockedException;
-import sim.field.grid.ObjectGrid2D;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWChunkedGrid;
+import tileworld.environment.TWObject;
+import tileworld.environment.TWMessageBus;
+import sim.util.Bag;
 import sim.util.Int2D;
 import tileworld.environment.TWObstacle;
 import tileworld.environment.TWHole;
 import tileworld.environment.TWTile;
 import tileworld.agent.Message;
 import tileworld.agent.MyCommunication;
-import java.util.ArrayList;
 
 public class MyAgent extends TWAgent{
 	private String name;
     private MyPlanner planner;
     private TWAction nextAction = null;
-    private int sensorRange = 3; // Add sensor range variable
+    private int sensorRange; // Sensor range
     
     // Add behavior mode enumeration
     enum Mode {
@@ -34,10 +38,16 @@ public class MyAgent extends TWAgent{
     }
     
     private Mode currentMode = Mode.EXPLORE;
-    private double fuelThreshold = 100.0; // Fuel threshold
+    private double fuelThreshold = 100.0; // Fuel threshold, used while the fuel station is unknown
+    private static final int FUEL_MARGIN = 20; // Spare fuel for the steps between two evaluations, out and back
+    private static final boolean DEBUG = false; // Trace messages and memory to System.out
     private int maxCarriedTiles = 3; // Maximum number of tiles that can be carried
     private int explorationStep = 0; // Exploration step counter
     private int lastFuelCheck = 0; // Last fuel check time step
+    private final int messageReader; // Cursor into the environment's message bus
+    private final Bag inbox = new Bag(); // Messages received by the last communicate()
+    private final TWMemoryStore published; // Entity this agent last announced in each cell, tick is its creation step
+    private final TWChunkedGrid.CellVisitor publisher = this::publishChange; // Made once, handed to the sensor
 
     public int getSensorRange() {
         return sensorRange;
@@ -46,10 +56,13 @@ public class MyAgent extends TWAgent{
     public MyAgent(String name, int xpos, int ypos, TWEnvironment env, double fuelLevel) {
         super(xpos,ypos,env,fuelLevel);
         this.name = name;
+        this.sensorRange = env.getConfig().getSensorRange();
+        this.published = new TWMemoryStore(env.getxDimension(), env.getyDimension(), 1);
         // Use MyMemory instead of default TWAgentWorkingMemory
         this.memory = new MyMemory(this, env.schedule, env.getxDimension(), env.getyDimension());
         // Initialize planner
         this.planner = new MyPlanner(this, env);
+        this.messageReader = env.getMessageBus().newReader(name);
     }
 
     public void setNextAction(TWAction action) {
@@ -59,7 +72,7 @@ public class MyAgent extends TWAgent{
     // Add state evaluation method
     private void evaluateState() {
         // Check fuel status
-        if (fuelLevel < fuelThreshold) {
+        if (needsFuel()) {
             currentMode = Mode.FIND_FUEL_STATION;
             return;
         }
@@ -84,6 +97,22 @@ public class MyAgent extends TWAgent{
         }
     }
 
+    /**
+     * Once the fuel station is known, the exact number of steps to it comes
+     * from the environment's shared distance field; until then (or if it
+     * cannot be reached right now) fall back to the flat threshold.
+     */
+    private boolean needsFuel() {
+        if (planner.hasFoundFuelStation()) {
+            TWFuelStation station = planner.getFuelStation();
+            int steps = getEnvironment().getDistanceField(station.getX(), station.getY()).getDistance(x, y);
+            if (steps != TWDistanceField.UNREACHABLE) {
+                return fuelLevel <= steps + FUEL_MARGIN;
+            }
+        }
+        return fuelLevel < fuelThreshold;
+    }
+
     @Override
     public TWThought think() {
         // Periodically evaluate state
@@ -114,10 +143,10 @@ public class MyAgent extends TWAgent{
             if (x == station.getX() && y == station.getY()) {
                 return new TWThought(TWAction.REFUEL, TWDirection.Z);
             }
-            TWPath path = ((MyPlanner)planner).getPathGenerator().findPath(x, y, station.getX(), station.getY());
-            if (path != null && !path.getpath().isEmpty()) {
-                TWPathStep step = path.getpath().removeFirst();
-                return new TWThought(TWAction.MOVE, step.getDirection());
+            // Shared field, no search of our own
+            TWDirection step = getEnvironment().getDistanceField(station.getX(), station.getY()).getNextStep(x, y);
+            if (step != TWDirection.Z) {
+                return new TWThought(TWAction.MOVE, step);
             }
         }
         
@@ -125,9 +154,8 @@ public class MyAgent extends TWAgent{
         TWEntity entity = memory.getClosestObjectInSensorRange(TWFuelStation.class);
         if (entity != null) {
             TWPath path = ((MyPlanner)planner).getPathGenerator().findPath(x, y, entity.getX(), entity.getY());
-            if (path != null && !path.getpath().isEmpty()) {
-                TWPathStep step = path.getpath().removeFirst();
-                return new TWThought(TWAction.MOVE, step.getDirection());
+            if (path != null && path.hasNext()) {
+                return new TWThought(TWAction.MOVE, path.popDirection());
             }
         }
         
@@ -141,16 +169,13 @@ public class MyAgent extends TWAgent{
             return handleHoleFilling();
         }
         
-        TWEntity tile = memory.getClosestObjectInSensorRange(TWTile.class);
+        // Nearest reachable tile and the way there, in one search
+        NearestObjectFinder.Result tile = planner.findNearest(TWTile.class);
         if (tile != null) {
-            if (x == tile.getX() && y == tile.getY()) {
+            if (!tile.getPath().hasNext()) {
                 return new TWThought(TWAction.PICKUP, TWDirection.Z);
             }
-            TWPath path = ((MyPlanner)planner).getPathGenerator().findPath(x, y, tile.getX(), tile.getY());
-            if (path != null && !path.getpath().isEmpty()) {
-                TWPathStep step = path.getpath().removeFirst();
-                return new TWThought(TWAction.MOVE, step.getDirection());
-            }
+            return new TWThought(TWAction.MOVE, tile.getPath().popDirection());
         }
         
         return handleExploration();
@@ -162,16 +187,13 @@ public class MyAgent extends TWAgent{
             return handleTileCollection();
         }
         
-        TWEntity hole = memory.getClosestObjectInSensorRange(TWHole.class);
+        // Nearest reachable hole and the way there, in one search
+        NearestObjectFinder.Result hole = planner.findNearest(TWHole.class);
         if (hole != null) {
-            if (x == hole.getX() && y == hole.getY()) {
+            if (!hole.getPath().hasNext()) {
                 return new TWThought(TWAction.PUTDOWN, TWDirection.Z);
             }
-            TWPath path = ((MyPlanner)planner).getPathGenerator().findPath(x, y, hole.getX(), hole.getY());
-            if (path != null && !path.getpath().isEmpty()) {
-                TWPathStep step = path.getpath().removeFirst();
-                return new TWThought(TWAction.MOVE, step.getDirection());
-            }
+            return new TWThought(TWAction.MOVE, hole.getPath().popDirection());
         }
         
         return handleExploration();
@@ -203,19 +225,23 @@ public class MyAgent extends TWAgent{
                 memory.getMemoryGrid().set(x, y, null);
                 
                 // Print tile pickup coordinates and memory
-                System.out.println("Agent " + this.name + " picked up tile at coordinates: (" + tile.getX() + ", " + tile.getY() + ")");
+                if (DEBUG) {
+                    System.out.println("Agent " + this.name + " picked up tile at coordinates: (" + tile.getX() + ", " + tile.getY() + ")");
+                }
                 
-                // Send message to all agents about tile pickup
-                MyCommunication message = new MyCommunication(
-                    this.getName(),
-                    "ALL",
+                // Send message to the agents near the tile about its pickup
+                CompactMessage message = getEnvironment().getMessageBus().obtain().set(
+                    messageReader,
                     MyCommunication.MessageType.TILE_PICKED_UP,
                     tile
                 );
                 // Print message sending information
-                System.out.println("Agent " + this.name + " sent message: tile at (" + tile.getX() + ", " + tile.getY() + ") was picked up");
+                if (DEBUG) {
+                    System.out.println("Agent " + this.name + " sent message: tile at (" + tile.getX() + ", " + tile.getY() + ") was picked up");
+                }
                 // Send message through environment
-                this.getEnvironment().receiveMessage(message);
+                this.getEnvironment().receiveMessage(message, tile.getX(), tile.getY());
+                published.forget(tile.getX(), tile.getY());
                 
                 // Immediately call communicate() to process message
                 this.communicate();
@@ -260,7 +286,17 @@ public class MyAgent extends TWAgent{
             // Process messages immediately after movement
             this.communicate();
         } catch (CellBlockedException ex) {
-            // Movement blocked, replan path
+            // Movement blocked: remember the obstacle so the planner repairs
+            // its search around it, then replan
+            int bx = x + thought.getDirection().dx;
+            int by = y + thought.getDirection().dy;
+            if (getEnvironment().isInBounds(bx, by)) {
+                Object blocker = getEnvironment().getObjectGrid().get(bx, by);
+                if (blocker instanceof TWObstacle && memory instanceof MyMemory) {
+                    ((MyMemory) memory).recordObstacle((TWObstacle) blocker);
+                }
+            }
+            planner.voidPlan();
         }
     }
 
@@ -269,131 +305,167 @@ public class MyAgent extends TWAgent{
         return name;
     }
 
+    /**
+     * Reports changes in the sensor window and reads incoming messages.
+     *
+     * Only differences from what this agent has already announced are sent:
+     * an entity it has not announced in that cell before, or the
+     * disappearance of one it has. Cells it keeps seeing unchanged cost no
+     * messages, however often this is called. Objects come from pools and
+     * are reissued elsewhere after they expire, so an announced object only
+     * counts as the same one while its creation step is unchanged, and a
+     * disappearance is sent for the cell it was announced in.
+     *
+     * The window comes from the agent's sensor, which after a move only
+     * looks at the cells that came into view or changed, and only those
+     * cells are compared with what was announced.
+     */
     @Override
     public void communicate() {
-        // Get all entities in current sensor range
-        ArrayList<TWEntity> discoveredEntities = new ArrayList<>();
+        sensor.refresh();
+        sensor.drainChanges(publisher);
         
-        // Check entities in sensor range
-        for (int i = -sensorRange; i <= sensorRange; i++) {
-            for (int j = -sensorRange; j <= sensorRange; j++) {
-                int checkX = x + i;
-                int checkY = y + j;
-                if (checkX >= 0 && checkX < getEnvironment().getxDimension() &&
-                    checkY >= 0 && checkY < getEnvironment().getyDimension()) {
-                    Object obj = getEnvironment().getObjectGrid().get(checkX, checkY);
-                    
-                    if (obj != null) {
-                        // Discover new entity
-                        TWEntity discoveredEntity = (TWEntity) obj;
-                        discoveredEntities.add(discoveredEntity);
-                        
-                        // Check if message about this entity has already been sent
-                        boolean alreadySent = false;
-                        for (Message msg : this.getEnvironment().getMessages()) {
-                            if (msg instanceof MyCommunication) {
-                                MyCommunication comm = (MyCommunication) msg;
-                                if (comm.getDiscoveredEntity() != null &&
-                                    comm.getDiscoveredEntity().getX() == discoveredEntity.getX() &&
-                                    comm.getDiscoveredEntity().getY() == discoveredEntity.getY()) {
-                                    alreadySent = true;
-                                    break;
-                                }
-                            }
-                        }
-                        
-                        if (!alreadySent) {
-                            // Send message to other agents
-                            MyCommunication message;
-                            
-                            // Special handling for fuel station
-                            if (discoveredEntity instanceof TWFuelStation) {
-                                message = new MyCommunication(
-                                    this.getName(),
-                                    "ALL",
-                                    MyCommunication.MessageType.FUEL_STATION_FOUND,
-                                    discoveredEntity
-                                );
-                                // Print message sending information
-                                System.out.println("Agent " + this.name + " sent message: found fuel station at (" + 
-                                                 discoveredEntity.getX() + ", " + discoveredEntity.getY() + ")");
-                                
-                                // Send message through environment
-                                this.getEnvironment().receiveMessage(message);
-                                
-                                // Immediately update own memory
-                                if (memory instanceof MyMemory) {
-                                    ((MyMemory)memory).updateFromMessage(message);
-                                }
-                                
-                                // Update fuel station information in planner
-                                if (planner instanceof MyPlanner) {
-                                    ((MyPlanner)planner).setFuelStation((TWFuelStation)discoveredEntity);
-                                    System.out.println("Agent " + this.name + " updated fuel station information in planner");
-                                }
-                            } else {
-                                message = new MyCommunication(
-                                    this.getName(),
-                                    "ALL",  // Broadcast to all agents
-                                    MyCommunication.MessageType.TILE_FOUND,
-                                    discoveredEntity
-                                );
-                                // Print message sending information
-                                System.out.println("Agent " + this.name + " sent message: found entity " + 
-                                                 discoveredEntity.getClass().getSimpleName() + 
-                                                 " at (" + discoveredEntity.getX() + ", " + discoveredEntity.getY() + ")");
-                                
-                                // Send message through environment
-                                this.getEnvironment().receiveMessage(message);
-                                
-                                // Immediately update own memory
-                                if (memory instanceof MyMemory) {
-                                    ((MyMemory)memory).updateFromMessage(message);
-                                }
-                            }
-                        }
-                    }
-                }
+        // Own memory is refreshed on every call, sent or not
+        if (memory instanceof MyMemory) {
+            TWSensorReading inView = sensor.getReading();
+            for (int i = 0; i < inView.getObjectCount(); i++) {
+                ((MyMemory)memory).recordSighting(inView.getObject(i));
             }
         }
         
-        // Process received messages
-        ArrayList<Message> messages = this.getEnvironment().getMessages();
-        if (messages != null && !messages.isEmpty()) {
-            for (Message msg : messages) {
-                if (msg instanceof MyCommunication) {
-                    MyCommunication comm = (MyCommunication) msg;
-                    
-                    // Skip if message has already been processed by current agent
-                    if (comm.isProcessedBy(this.getName())) {
-                        continue;
-                    }
-                    
-                    // If message is sent to all agents or specifically to current agent
-                    String to = comm.getTo();
-                    if (to == null || to.equals("ALL") || to.equals(this.getName())) {
-                        // Process message
-                        receiveMessage(msg);
-                        // Mark message as processed by current agent
-                        comm.markProcessedBy(this.getName());
+        // Process received messages: the bus only hands out messages this
+        // agent has not read yet and is close enough to hear
+        TWMessageBus bus = this.getEnvironment().getMessageBus();
+        bus.receive(messageReader, x, y, inbox);
+        for (int i = 0; i < inbox.numObjs; i++) {
+            Message msg = (Message) inbox.objs[i];
+            if (msg instanceof EntityMessage) {
+                // If message is sent to all agents or specifically to current agent
+                String to = msg.getTo();
+                if (to == null || to.equals("ALL") || to.equals(this.getName())) {
+                    // Process message
+                    receiveMessage(msg);
+                    if (msg instanceof CompactMessage) {
+                        ((CompactMessage) msg).markProcessedBy(messageReader);
                     }
                 }
             }
         }
         
         // Print memory contents
-        printMemory();
+        if (DEBUG) {
+            printMemory();
+        }
+    }
+
+    /**
+     * Announces what cell checkX,checkY holds now if it differs from what
+     * this agent last announced there. Messages come from the bus's arena.
+     */
+    private void publishChange(int checkX, int checkY, Object obj) {
+        TWMessageBus bus = this.getEnvironment().getMessageBus();
+        TWEntity discoveredEntity = (TWEntity) obj;
+        Object last = published.getEntity(checkX, checkY);
+        if (obj == last && (obj == null || published.getTick(checkX, checkY) == creationStep(discoveredEntity))) {
+            // Nothing changed since we last announced this cell
+            return;
+        }
+        
+        if (obj == null) {
+            // Something we announced has gone; name the cell, the object
+            // itself may have been reissued somewhere else by now
+            byte goneType = published.getType(checkX, checkY);
+            published.forget(checkX, checkY);
+            if (!bus.isAnnounced(checkX, checkY, goneType)) {
+                this.getEnvironment().receiveMessage(
+                    bus.obtain().set(messageReader, MyCommunication.MessageType.ENTITY_GONE, checkX, checkY, goneType),
+                    checkX, checkY);
+            }
+            return;
+        }
+        published.remember(checkX, checkY, discoveredEntity, creationStep(discoveredEntity));
+        
+        // Discover new entity
+        
+        // Check if message about this entity has already been sent
+        if (bus.isAnnounced(checkX, checkY, TWCellType.of(discoveredEntity))) {
+            return;
+        }
+        
+        // Special handling for fuel station
+        if (discoveredEntity instanceof TWFuelStation) {
+            CompactMessage message = bus.obtain().set(
+                messageReader,
+                MyCommunication.MessageType.FUEL_STATION_FOUND,
+                discoveredEntity
+            );
+            // Print message sending information
+            if (DEBUG) {
+                System.out.println("Agent " + this.name + " sent message: found fuel station at (" + 
+                                 discoveredEntity.getX() + ", " + discoveredEntity.getY() + ")");
+            }
+            
+            // Send message through environment
+            this.getEnvironment().receiveMessage(message);
+            
+            // Update fuel station information in planner
+            if (planner instanceof MyPlanner) {
+                ((MyPlanner)planner).setFuelStation((TWFuelStation)discoveredEntity);
+                if (DEBUG) {
+                    System.out.println("Agent " + this.name + " updated fuel station information in planner");
+                }
+            }
+        } else {
+            // All agents within communication range of it
+            CompactMessage message = bus.obtain().set(
+                messageReader,
+                MyCommunication.MessageType.TILE_FOUND,
+                discoveredEntity
+            );
+            // Print message sending information
+            if (DEBUG) {
+                System.out.println("Agent " + this.name + " sent message: found entity " + 
+                                 discoveredEntity.getClass().getSimpleName() + 
+                                 " at (" + discoveredEntity.getX() + ", " + discoveredEntity.getY() + ")");
+            }
+            
+            // Send message through environment
+            this.getEnvironment().receiveMessage(message,
+                    discoveredEntity.getX(), discoveredEntity.getY());
+        }
+    }
+
+    /**
+     * @return the step a pooled object was issued in, 0 for the fuel
+     * station, which is never reissued
+     */
+    private static int creationStep(TWEntity e) {
+        return e instanceof TWObject ? (int) ((TWObject) e).getCreationTime() : 0;
     }
 
     public void receiveMessage(Message message) {
-        if (message instanceof MyCommunication) {
-            MyCommunication comm = (MyCommunication) message;
+        if (message instanceof EntityMessage) {
+            EntityMessage comm = (EntityMessage) message;
             TWEntity entity = comm.getDiscoveredEntity();
             
             // Print received message
-            System.out.println("Agent " + this.name + " received message from " + comm.getSenderId() + ": " + 
-                             comm.getMessage() + " Entity type: " + (entity != null ? entity.getClass().getSimpleName() : "null") + 
-                             " Location: (" + (entity != null ? entity.getX() : "null") + "," + (entity != null ? entity.getY() : "null") + ")");
+            if (DEBUG) {
+                System.out.println("Agent " + this.name + " received message from " + comm.getSenderId() + ": " + 
+                                 message.getMessage() + " Entity type: " + (entity != null ? entity.getClass().getSimpleName() : "null") + 
+                                 " Location: (" + (entity != null ? entity.getX() : "null") + "," + (entity != null ? entity.getY() : "null") + ")");
+            }
+            
+            // A disappearance names a cell and a type, not an entity: forget
+            // the cell unless memory already holds something else there
+            if (comm.getMessageType() == MyCommunication.MessageType.ENTITY_GONE) {
+                if (message instanceof CompactMessage) {
+                    CompactMessage gone = (CompactMessage) message;
+                    if (memory.getCellType(gone.getX(), gone.getY()) == gone.getEntityType()) {
+                        memory.removeAgentPercept(gone.getX(), gone.getY());
+                    }
+                }
+                return;
+            }
             
             // Process received message
             if (entity != null) {
@@ -402,7 +474,9 @@ public class MyAgent extends TWAgent{
                     case TILE_PICKED_UP:
                         // Remove picked up tile from memory
                         memory.getMemoryGrid().set(entity.getX(), entity.getY(), null);
-                        System.out.println("Agent " + this.name + " received message: tile at (" + entity.getX() + ", " + entity.getY() + ") was picked up, memory updated");
+                        if (DEBUG) {
+                            System.out.println("Agent " + this.name + " received message: tile at (" + entity.getX() + ", " + entity.getY() + ") was picked up, memory updated");
+                        }
                         break;
                     case TILE_FOUND:
                     case FUEL_STATION_FOUND:
@@ -412,12 +486,16 @@ public class MyAgent extends TWAgent{
                             ((MyMemory)memory).updateFromMessage(comm);
                             // Special handling for fuel station
                             if (entity instanceof TWFuelStation) {
-                                System.out.println("Agent " + this.name + " updated memory: fuel station location at (" + 
-                                                 entity.getX() + ", " + entity.getY() + ")");
+                                if (DEBUG) {
+                                    System.out.println("Agent " + this.name + " updated memory: fuel station location at (" + 
+                                                     entity.getX() + ", " + entity.getY() + ")");
+                                }
                                 // Update fuel station information in planner
                                 if (planner instanceof MyPlanner) {
                                     ((MyPlanner)planner).setFuelStation((TWFuelStation)entity);
-                                    System.out.println("Agent " + this.name + " updated fuel station information in planner");
+                                    if (DEBUG) {
+                                        System.out.println("Agent " + this.name + " updated fuel station information in planner");
+                                    }
                                 }
                             }
                         }
@@ -440,7 +518,7 @@ public class MyAgent extends TWAgent{
         System.out.println("----------------------------------------");
         
         // Get memory grid
-        ObjectGrid2D memoryGrid = memory.getMemoryGrid();
+        TWMemoryGrid memoryGrid = memory.getMemoryGrid();
         int width = memoryGrid.getWidth();
         int height = memoryGrid.getHeight();
         
@@ -6,13 +6,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import javax.swing.text.html.HTMLDocument;
+import ec.util.MersenneTwisterFast;
 import sim.engine.Schedule;
-import sim.field.grid.ObjectGrid2D;
 import sim.util.Bag;
 import sim.util.Int2D;
 import sim.util.IntBag;
 import tileworld.environment.NeighbourSpiral;
-import tileworld.Parameters;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWChunkedGrid;
 import tileworld.environment.TWEntity;
 
 
@@ -40,6 +41,14 @@ import tileworld.environment.TWFuelStation;
  *         time the element has been in memory. The maximum length of time which
  *         the agent can remember is specified as MAX_TIME. Any memories beyond
  *         this are automatically removed.
+ *
+ *         Every update forgets each percept with probability MEM_DECAY. Rather
+ *         than tossing that coin for every percept on every update, the
+ *         number of updates a percept survives is drawn once, when it is
+ *         observed, and the cell is given the step it will be forgotten in
+ *         (TWMemoryStore expireAt); each update then only handles the cells
+ *         due. The draw uses the simulation's random generator, so a run is
+ *         the same for the same seed.
  */
 public class MyMemory extends TWAgentWorkingMemory{
 
@@ -52,38 +61,42 @@ public class MyMemory extends TWAgentWorkingMemory{
 	private static final float MEM_DECAY = 0.5f;
 	protected Int2D fuelStation;
 
-	private ObjectGrid2D memoryGrid;
-
 	/*
-	 * This was originally a queue ordered by the time at which the fact was observed.
-	 * However, when updating the memory a queue is very slow.
-	 * Here we trade off memory (in that we maintain a complete image of the map)
-	 * for speed of update. Updating the memory is a lot more straightforward.
-	 */
-	private TWAgentPercept[][] objects;
-	/**
-	 * Number of items recorded in memory, currently doesn't decrease as memory
-	 * is not degraded - nothing is ever removed!
+	 * Everything remembered is in the base memory's TWMemoryStore, the
+	 * entity, cell type, step seen and step to be forgotten of every cell.
 	 */
-	private int memorySize;
+	private final TWMemoryStore store;
+	/** forgets a cell the store says is due, made once */
+	private final TWChunkedGrid.CellVisitor forgetter = this::forgetDue;
 
 	/**
 	 * Stores (for each TWObject type) the closest object within sensor range,
 	 * null if no objects are in sensor range
 	 */
 	private HashMap<Class<?>, TWEntity> closestInSensorRange;
-	static private List<Int2D> spiral = new NeighbourSpiral(Parameters.defaultSensorRange * 4).spiral();
+
+	/**
+	 * Notified when the memory records an obstacle on a cell it did not
+	 * already remember as blocked, e.g. so cached paths through it can be
+	 * dropped, and when a remembered obstacle is forgotten.
+	 */
+	public interface ObstacleListener {
+		void obstacleRecorded(int x, int y);
+		void obstacleRemoved(int x, int y);
+	}
+
+	private List<ObstacleListener> obstacleListeners = new ArrayList<ObstacleListener>(1);
+	private List<Int2D> spiral;
 	//    private List<TWAgent> neighbouringAgents = new ArrayList<TWAgent>();
 	// x, y: the dimension of the grid
 	public MyMemory(TWAgent moi, Schedule schedule, int x, int y) {
 		super(moi, schedule, x, y);
 		this.me = moi;
 		this.schedule = schedule;
-		this.memoryGrid = new ObjectGrid2D(x, y);
-		this.objects = new TWAgentPercept[x][y];
+		this.store = getStore();
 		this.closestInSensorRange = new HashMap<Class<?>, TWEntity>(4);
-		this.memorySize = 0;
 		this.fuelStation = null;
+		this.spiral = new NeighbourSpiral(moi.getEnvironment().getConfig().getSensorRange() * 4).spiral();
 	}
 
 	/**
@@ -126,7 +139,7 @@ public class MyMemory extends TWAgentWorkingMemory{
 			if (o == null || !(o instanceof TWObject)) continue;
 			
 			// Update object in memory
-			updateEntityInMemory(o);
+			remember(o);
 		}
 		
 		// Process perceived other agents
@@ -143,39 +156,91 @@ public class MyMemory extends TWAgentWorkingMemory{
 		cleanExpiredMemory();
 	}
 	
+	/**
+	 * Same as the Bag version, for a sensor's reusable reading.
+	 *
+	 * @param reading what the sensor saw, only valid during this call
+	 */
+	@Override
+	public void updateMemory(TWSensorReading reading) {
+		closestInSensorRange.clear();
+		
+		// Update each perceived object
+		for (int i = 0; i < reading.getObjectCount(); i++) {
+			TWEntity o = reading.getObject(i);
+			if (!(o instanceof TWObject)) continue;
+			
+			remember(o);
+		}
+		
+		// Clean up expired memories
+		cleanExpiredMemory();
+	}
+	
 	/**
 	 * Update memory from message
 	 */
-	public void updateFromMessage(MyCommunication message) {
+	public void updateFromMessage(EntityMessage message) {
 		if (message == null || message.getDiscoveredEntity() == null) return;
 		
-		TWEntity entity = message.getDiscoveredEntity();
-		updateEntityInMemory(entity);
+		recordSighting(message.getDiscoveredEntity());
+	}
+	
+	/**
+	 * Records an entity the agent has just seen itself, fuel stations
+	 * included
+	 */
+	public void recordSighting(TWEntity entity) {
+		remember(entity);
 		
 		// If it's a fuel station, update fuelStation
-		if (entity instanceof TWFuelStation) {
+		if (entity instanceof TWFuelStation
+				&& (fuelStation == null || fuelStation.x != entity.getX() || fuelStation.y != entity.getY())) {
 			fuelStation = new Int2D(entity.getX(), entity.getY());
 		}
 	}
 	
+	/**
+	 * Records an obstacle the agent found by bumping into it rather than
+	 * through its sensor
+	 */
+	public void recordObstacle(TWObstacle obstacle) {
+		remember(obstacle);
+	}
+
 	/**
 	 * Update entity in memory
 	 */
-	private void updateEntityInMemory(TWEntity entity) {
-		if (entity == null || objects == null || memoryGrid == null) return;
+	@Override
+	protected void remember(TWEntity entity) {
+		if (entity == null) return;
 		
 		try {
-			// If there's no object at current position, increase memory size
-			if (objects[entity.getX()][entity.getY()] == null) {
-				memorySize++;
+			int x = entity.getX(), y = entity.getY();
+			byte was = store.getType(x, y);
+			boolean newObstacle = entity instanceof TWObstacle && was != TWCellType.OBSTACLE;
+			if (was == TWCellType.OBSTACLE && !(entity instanceof TWObstacle)) {
+				// The obstacle remembered here has gone, the cell is free again
+				forgetObstacle(x, y);
 			}
 			
-			// Update object in memory
-			objects[entity.getX()][entity.getY()] = new TWAgentPercept(entity, this.getSimulationTime());
-			memoryGrid.set(entity.getX(), entity.getY(), entity);
+			// Update object in memory, drawing its lifetime again only if it is
+			// a different object or was last seen in an earlier step
+			int now = getSimulationStep();
+			boolean seenThisStep = store.getEntity(x, y) == entity && store.getTick(x, y) == now;
+			store.remember(x, y, entity, now);
+			if (!seenThisStep) {
+				scheduleForgetting(x, y, now);
+			}
 			
 			// Update closest perceived object
 			updateClosest(entity);
+
+			if (newObstacle) {
+				for (ObstacleListener l : obstacleListeners) {
+					l.obstacleRecorded(entity.getX(), entity.getY());
+				}
+			}
 		} catch (ArrayIndexOutOfBoundsException e) {
 			System.err.println("Error updating memory: entity position out of bounds (" + 
 							 entity.getX() + ", " + entity.getY() + ")");
@@ -183,33 +248,34 @@ public class MyMemory extends TWAgentWorkingMemory{
 	}
 	
 	/**
-	 * Clean up expired memories
+	 * Draws how many more updates the cell x,y seen in step now survives,
+	 * each forgetting it with probability MEM_DECAY and none going past
+	 * MAX_TIME, and has the store expire it in that step. A cell observed
+	 * again is drawn again; as every update is the same coin this forgets
+	 * nothing sooner or later than tossing it each time would.
 	 */
-	private void cleanExpiredMemory() {
-		if (objects == null || memoryGrid == null) return;
-		
-		double currentTime = this.getSimulationTime();
-		
-		for (int x = 0; x < objects.length; x++) {
-			for (int y = 0; y < objects[x].length; y++) {
-				TWAgentPercept percept = objects[x][y];
-				if (percept != null) {
-					// If memory exceeds maximum time, remove directly
-					if (currentTime - percept.getT() > MAX_TIME) {
-						objects[x][y] = null;
-						memoryGrid.set(x, y, null);
-						memorySize--;
-					}
-					// Otherwise decay with probability
-					else if (Math.random() < MEM_DECAY) {
-						objects[x][y] = null;
-						memoryGrid.set(x, y, null);
-						memorySize--;
-					}
-				}
-			}
+	private void scheduleForgetting(int x, int y, int now) {
+		MersenneTwisterFast random = me.getEnvironment().random;
+		int updates = 0;
+		while (updates <= MAX_TIME && !random.nextBoolean(MEM_DECAY)) {
+			updates++;
 		}
+		store.expireAt(x, y, now + updates);
+	}
+
+	/**
+	 * Clean up expired memories: only the cells due this step are looked at,
+	 * however much the agent remembers
+	 */
+	private void cleanExpiredMemory() {
+		store.expire(getSimulationStep(), forgetter);
+	}
+
+	private void forgetDue(int x, int y, Object o) {
+		forgetObstacle(x, y);
+		store.forget(x, y);
 	}
+
 	
 	private void updateClosest(TWEntity o) {
 		if (o == null) return;
@@ -230,18 +296,6 @@ public class MyMemory extends TWAgentWorkingMemory{
 		return Math.sqrt((x2 - x1) * (x2 - x1) + (y2 - y1) * (y2 - y1));
 	}
 
-	/**
-	 * updates memory using 2d array of sensor range - currently not used
-	 * @see TWAgentWorkingMemory#updateMemory(sim.util.Bag, sim.util.IntBag, sim.util.IntBag)
-	 */
-	public void updateMemory(TWEntity[][] sensed, int xOffset, int yOffset) {
-		for (int x = 0; x < sensed.length; x++) {
-			for (int y = 0; y < sensed[x].length; y++) {
-				objects[x + xOffset][y + yOffset] = new TWAgentPercept(sensed[x][y], this.getSimulationTime());
-			}
-		}
-	}
-
 	/**
 	 * removes all facts earlier than now - max memory time. 
 	 * TODO: Other facts are
@@ -264,7 +318,19 @@ public class MyMemory extends TWAgentWorkingMemory{
 
 
 	public void removeAgentPercept(int x, int y){
-		objects[x][y] = null;
+		forgetObstacle(x, y);
+		store.forget(x, y);
+	}
+
+	/**
+	 * Tells the listeners a remembered obstacle at x,y is about to be removed
+	 */
+	private void forgetObstacle(int x, int y) {
+		if (isCellBlocked(x, y)) {
+			for (ObstacleListener l : obstacleListeners) {
+				l.obstacleRemoved(x, y);
+			}
+		}
 	}
 
 
@@ -303,7 +369,7 @@ public class MyMemory extends TWAgentWorkingMemory{
 	 * Returns the number of items currently in memory
 	 */
 	public int getMemorySize() {
-		return memorySize;
+		return store.size();
 	}
 
 
@@ -339,11 +405,11 @@ public class MyMemory extends TWAgentWorkingMemory{
 			x = offset.x + sx;
 			y = offset.y + sy;
 
-			if (me.getEnvironment().isInBounds(x, y) && objects[x][y] != null) {
-				o = (TWEntity) objects[x][y].getO();//get mem object
+			if (me.getEnvironment().isInBounds(x, y) && store.isRemembered(x, y)) {
+				o = store.getEntity(x, y);//get mem object
 				if (type.isInstance(o)) {//if it's not the type we're looking for do nothing
 
-					time = objects[x][y].getT();//get time of memory
+					time = store.getTick(x, y);//get time of memory
 
 					if (this.getSimulationTime() - time <= threshold) {
 						//if we found one satisfying time, then return
@@ -374,27 +440,8 @@ public class MyMemory extends TWAgentWorkingMemory{
 		return closestInSensorRange.get(type);
 	}
 
-	/**
-	 * Is the cell blocked according to our memory?
-	 * 
-	 * @param tx x position of cell
-	 * @param ty y position of cell
-	 * @return true if the cell is blocked in our memory
-	 */
-	public boolean isCellBlocked(int tx, int ty) {
-
-		//no memory at all, so assume not blocked
-		if (objects[tx][ty] == null) {
-			return false;
-		}
-
-		TWEntity e = (TWEntity) objects[tx][ty].getO();
-		//is it an obstacle?
-		return (e instanceof TWObstacle);
-	}
-
-	public ObjectGrid2D getMemoryGrid() {
-		return this.memoryGrid;
+	public void addObstacleListener(ObstacleListener listener) {
+		obstacleListeners.add(listener);
 	}
 
 	/**
@@ -8,7 +8,6 @@ import sim.engine.Steppable;
 import sim.portrayal.Inspector;
 import sim.portrayal.LocationWrapper;
 import sim.portrayal.Portrayal;
-import tileworld.Parameters;
 import tileworld.environment.TWDirection;
 import tileworld.environment.TWEntity;
 import tileworld.environment.TWEnvironment;
@@ -44,7 +43,7 @@ public abstract class TWAgent extends TWEntity implements Steppable {
         this.score = 0;
         this.fuelLevel = fuelLevel;
         this.carriedTiles = new ArrayList<TWTile>();
-        this.sensor = new TWAgentSensor(this, Parameters.defaultSensorRange);
+        this.sensor = new TWAgentSensor(this, env.getConfig().getSensorRange());
         this.memory = new TWAgentWorkingMemory(this, env.schedule, env.getxDimension(), env.getyDimension());
     }
     /**
@@ -127,7 +126,7 @@ public abstract class TWAgent extends TWEntity implements Steppable {
 	    	if (carriedTiles.size() < 3){
 	    		carriedTiles.add(tile);
 	    		System.out.println("Pickup...");
-	    		this.getEnvironment().getObjectGrid().set(tile.getX(), tile.getY(), null);
+	    		this.getEnvironment().clearCell(tile.getX(), tile.getY());
 	    	} else {
 	    		System.out.println("Agent already carries 3 tiles.");
 	    	}
@@ -145,7 +144,7 @@ public abstract class TWAgent extends TWEntity implements Steppable {
     protected final void putTileInHole(TWHole hole) {
     	if(this.getEnvironment().canPutdownTile(hole, this)) {
     		this.carriedTiles.remove(0); //remove first tile in list
-    		this.getEnvironment().getObjectGrid().set(hole.getX(), hole.getY(), null);
+    		this.getEnvironment().clearCell(hole.getX(), hole.getY());
     		this.score++; // increase individual reward       
     		this.getEnvironment().increaseReward(); // increase the overall reward
     		System.out.println("Put tile...");
@@ -162,7 +161,7 @@ public abstract class TWAgent extends TWEntity implements Steppable {
     protected final void refuel() {
         //assert (this.sameLocation(this.getEnvironment().getFuelingStation()));   	
     	if(this.getEnvironment().inFuelStation(this)) {
-    		this.fuelLevel = Parameters.defaultFuelLevel;
+    		this.fuelLevel = this.getEnvironment().getConfig().getFuelLevel();
     		System.out.println("Refuel.....");
     	}else {
     		System.out.println("Agent is not in the same position of fuel station.");
@@ -212,11 +211,12 @@ public abstract class TWAgent extends TWEntity implements Steppable {
      * This is the portrayal for the agent. If you want a different coloured
      * agent you can modify this.
      *
+     * @param sensorRange range drawn around the agent
      * @return
      */
-    public static Portrayal getPortrayal() {
+    public static Portrayal getPortrayal(int sensorRange) {
         //red filled box.
-        return new TWAgentPortrayal(Color.blue, Parameters.defaultSensorRange) {
+        return new TWAgentPortrayal(Color.blue, sensorRange) {
 
             @Override
             public Inspector getInspector(LocationWrapper wrapper, GUIState state) {
@@ -7,6 +7,10 @@ package tileworld.agent;
 
 import sim.util.Bag;
 import sim.util.IntBag;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWChangeLog;
+import tileworld.environment.TWChunkedGrid;
+import tileworld.environment.TWEntity;
 import tileworld.environment.TWEnvironment;
 
 /**
@@ -33,34 +37,286 @@ public class TWAgentSensor {
     TWAgent me;
     int sensorRange;
 
+    /** what is in view, kept up to date by refresh() */
+    private final TWSensorReading reading;
+    /** scratch for the agent grid scan */
+    private final Bag agentBag = new Bag();
+    private final IntBag agentXs = new IntBag(), agentYs = new IntBag();
+
+    /*
+     * The window is kept as a ring of side x side slots: cell x,y of the world
+     * lives in slot (x mod side, y mod side). After a one cell move the row or
+     * column leaving the window has the same slots as the one coming in, so
+     * nothing else has to move.
+     */
+    private final int side;
+    /** entity seen in each slot, null if empty or off the grid */
+    private final TWEntity[] seen;
+    /** index of that entity in reading, -1 if none */
+    private final int[] seenIndex;
+    /** slots whose cell came into view or changed since drainChanges */
+    private final boolean[] changed;
+    private final int[] changedSlots;
+    private int changedCount;
+
+    /** centre of the window at the last refresh, valid only if inView */
+    private boolean inView;
+    private int viewX, viewY;
+    /** change log position read up to */
+    private long logPosition;
+
+    /** number of the current TWSensingPass, and the pass each slot was last seen in */
+    private int pass;
+    private final int[] seenInPass;
+
     TWAgentSensor(TWAgent moi, int defaultSensorRange) {
        me = moi;
        sensorRange = defaultSensorRange;
+       side = 2 * sensorRange + 1;
+       reading = new TWSensorReading(this, side * side);
+       seen = new TWEntity[side * side];
+       seenIndex = new int[side * side];
+       java.util.Arrays.fill(seenIndex, -1);
+       changed = new boolean[side * side];
+       changedSlots = new int[side * side];
+       seenInPass = new int[side * side];
     }
 
     /**
      * Simple sense procedure that gets all neighboring entities within the
-     * specified sensor range
+     * specified sensor range.
+     *
+     * The window is brought up to date by refresh() and handed to the memory
+     * as this sensor's reading, so sensing allocates nothing.
      */
     public void sense(){
-        Bag sensedObjects = new Bag();
-        Bag sensedAgents = new Bag();
-        IntBag objectXCoords = new IntBag();
-        IntBag objectYCoords = new IntBag();
-        IntBag agentXCoords = new IntBag();
-        IntBag agentYCoords = new IntBag();
-        
-        
-
-        //sense objects
-        // getNeighborsMaxDistance: Gets all neighbors of a location that satisfy max( abs(x-X) , abs(y-Y) ) <= dist.
-        // Note that the order and size of the result sensedObjects (sensedAgents) may not correspond to the objectXCoords (agentXCoords) and objectYCoords (agentYCoords) bags.
-        me.getEnvironment().getObjectGrid().getNeighborsMaxDistance(me.getX(), me.getY(), sensorRange, false, sensedObjects, objectXCoords, objectYCoords);
-        me.getEnvironment().getAgentGrid().getNeighborsMaxDistance(me.getX(), me.getY(), sensorRange, false, sensedAgents, agentXCoords, agentYCoords);
+        refresh();
 
         //import facts to memory
-        me.getMemory().updateMemory(sensedObjects, objectXCoords, objectYCoords, sensedAgents,agentXCoords,agentYCoords);
+        me.getMemory().updateMemory(reading);
+
+    }
+
+    /**
+     * Brings the reading up to date with the window around the agent's
+     * current position, without telling the memory.
+     *
+     * After a move of one cell (or none) only the row or column coming into
+     * view is read from the grid, and of the cells still in view only those
+     * the environment's change log names. Anything else - the first call, a
+     * teleport, a refresh skipped for more than a step so the log no longer
+     * reaches back far enough - reads the whole window again.
+     */
+    public void refresh() {
+        TWEnvironment env = me.getEnvironment();
+        TWChangeLog log = env.getChangeLog();
+        int x = me.getX(), y = me.getY();
+        int dx = x - viewX, dy = y - viewY;
+
+        reading.resetAgents();
+        if (!inView || !log.covers(logPosition) || Math.abs(dx) + Math.abs(dy) > 1) {
+            scanWindow(env, x, y);
+        } else {
+            //cells changed while in view of both the old and the new window
+            int height = env.getyDimension();
+            for (long seq = logPosition, end = log.getPosition(); seq < end; seq++) {
+                int cell = log.get(seq);
+                int cx = cell / height, cy = cell % height;
+                if (Math.abs(cx - viewX) <= sensorRange && Math.abs(cy - viewY) <= sensorRange
+                        && Math.abs(cx - x) <= sensorRange && Math.abs(cy - y) <= sensorRange) {
+                    look(env, cx, cy);
+                }
+            }
+            //the row or column coming into view
+            if (dx != 0) {
+                int cx = x + dx * sensorRange;
+                for (int cy = y - sensorRange; cy <= y + sensorRange; cy++) {
+                    look(env, cx, cy);
+                }
+            } else if (dy != 0) {
+                int cy = y + dy * sensorRange;
+                for (int cx = x - sensorRange; cx <= x + sensorRange; cx++) {
+                    look(env, cx, cy);
+                }
+            }
+        }
+        inView = true;
+        viewX = x;
+        viewY = y;
+        logPosition = log.getPosition();
+    }
+
+    /**
+     * @return what is in view as of the last refresh
+     */
+    public TWSensorReading getReading() {
+        return reading;
+    }
+
+    /**
+     * Gives v every cell that came into view or changed since the last call,
+     * once each and with what it holds now (maybe null), then forgets them.
+     * Cells that have left the window since are not given.
+     */
+    public void drainChanges(TWChunkedGrid.CellVisitor v) {
+        TWEnvironment env = me.getEnvironment();
+        int x0 = viewX - sensorRange, y0 = viewY - sensorRange;
+        for (int i = 0; i < changedCount; i++) {
+            int slot = changedSlots[i];
+            changed[slot] = false;
+            //the window cell that has this slot now
+            int cx = x0 + Math.floorMod(slot / side - x0, side);
+            int cy = y0 + Math.floorMod(slot % side - y0, side);
+            if (env.isInBounds(cx, cy)) {
+                v.visit(cx, cy, seen[slot]);
+            }
+        }
+        changedCount = 0;
+    }
+
+    /**
+     * Starts a batched scan (TWSensingPass): the pass then gives see() every
+     * non empty cell in the window, and calls endPass().
+     */
+    void beginPass() {
+        pass++;
+    }
+
+    /**
+     * One non empty cell of the window, from a batched scan.
+     */
+    void see(int x, int y, TWEntity e, byte type) {
+        int slot = slot(x, y);
+        seenInPass[slot] = pass;
+        if (seen[slot] != e) {
+            markChanged(slot);
+            store(slot, x, y, e, type);
+        }
+    }
+
+    /**
+     * Ends a batched scan. Objects not seen in it have gone or left the
+     * window and are dropped; cells that came into view count as changed
+     * even if empty, as after a refresh.
+     */
+    void endPass() {
+        TWEnvironment env = me.getEnvironment();
+        int x = me.getX(), y = me.getY();
+        for (int i = reading.getObjectCount() - 1; i >= 0; i--) {
+            int ox = reading.getObjectX(i), oy = reading.getObjectY(i);
+            int slot = slot(ox, oy);
+            if (seenInPass[slot] != pass) {
+                if (Math.abs(ox - x) <= sensorRange && Math.abs(oy - y) <= sensorRange) {
+                    markChanged(slot);
+                }
+                store(slot, ox, oy, null, TWCellType.EMPTY);
+            }
+        }
+        int dx = x - viewX, dy = y - viewY;
+        if (!inView || Math.abs(dx) + Math.abs(dy) > 1) {
+            for (int cx = x - sensorRange; cx <= x + sensorRange; cx++) {
+                for (int cy = y - sensorRange; cy <= y + sensorRange; cy++) {
+                    if (env.isInBounds(cx, cy)) {
+                        markChanged(slot(cx, cy));
+                    }
+                }
+            }
+        } else if (dx != 0) {
+            int cx = x + dx * sensorRange;
+            for (int cy = y - sensorRange; cy <= y + sensorRange; cy++) {
+                if (env.isInBounds(cx, cy)) {
+                    markChanged(slot(cx, cy));
+                }
+            }
+        } else if (dy != 0) {
+            int cy = y + dy * sensorRange;
+            for (int cx = x - sensorRange; cx <= x + sensorRange; cx++) {
+                if (env.isInBounds(cx, cy)) {
+                    markChanged(slot(cx, cy));
+                }
+            }
+        }
+        reading.resetAgents();
+        inView = true;
+        viewX = x;
+        viewY = y;
+        logPosition = env.getChangeLog().getPosition();
+    }
+
+    /**
+     * Fills the reading's agents, called by the reading when first asked.
+     */
+    void senseAgents() {
+        //the chunked grid skips empty chunks and fills our bags
+        me.getEnvironment().getAgentGrid().getNeighborsMaxDistance(me.getX(), me.getY(), sensorRange, agentBag, agentXs, agentYs);
+        for (int i = 0; i < agentBag.numObjs; i++) {
+            reading.addAgent((TWAgent) agentBag.objs[i], agentXs.get(i), agentYs.get(i));
+        }
+        agentBag.clear();
+    }
+
+    private void scanWindow(TWEnvironment env, int x, int y) {
+        reading.clearObjects();
+        java.util.Arrays.fill(seen, null);
+        java.util.Arrays.fill(seenIndex, -1);
+        for (int cx = x - sensorRange; cx <= x + sensorRange; cx++) {
+            for (int cy = y - sensorRange; cy <= y + sensorRange; cy++) {
+                look(env, cx, cy);
+            }
+        }
+    }
+
+    /**
+     * Reads cell x,y of the window from the grid into its slot, replacing
+     * whatever the slot held.
+     */
+    private void look(TWEnvironment env, int x, int y) {
+        int slot = slot(x, y);
+        TWEntity e = null;
+        byte type = TWCellType.EMPTY;
+        if (env.isInBounds(x, y)) {
+            type = env.getCellType(x, y);
+            if (type != TWCellType.EMPTY) {
+                e = (TWEntity) env.getObjectGrid().get(x, y);
+            }
+            markChanged(slot);
+        }
+        store(slot, x, y, e, type);
+    }
+
+    /**
+     * Puts e, at x,y, in slot in place of what it held, keeping the reading
+     * in step.
+     */
+    private void store(int slot, int x, int y, TWEntity e, byte type) {
+        if (seen[slot] == e) {
+            return;
+        }
+        if (seen[slot] != null) {
+            int i = seenIndex[slot];
+            reading.removeObject(i);
+            if (i < reading.getObjectCount()) {
+                //the last object moved into i
+                seenIndex[slot(reading.getObjectX(i), reading.getObjectY(i))] = i;
+            }
+            seenIndex[slot] = -1;
+        }
+        if (e != null) {
+            seenIndex[slot] = reading.getObjectCount();
+            reading.addObject(e, x, y, type);
+        }
+        seen[slot] = e;
+    }
+
+    private void markChanged(int slot) {
+        if (!changed[slot]) {
+            changed[slot] = true;
+            changedSlots[changedCount++] = slot;
+        }
+    }
 
+    private int slot(int x, int y) {
+        return Math.floorMod(x, side) * side + Math.floorMod(y, side);
     }
 
 
@@ -5,12 +5,11 @@ import java.util.HashMap;
 import java.util.List;
 import javax.swing.text.html.HTMLDocument;
 import sim.engine.Schedule;
-import sim.field.grid.ObjectGrid2D;
 import sim.util.Bag;
 import sim.util.Int2D;
 import sim.util.IntBag;
 import tileworld.environment.NeighbourSpiral;
-import tileworld.Parameters;
+import tileworld.environment.TWCellType;
 import tileworld.environment.TWEntity;
 
 
@@ -48,27 +47,26 @@ public class TWAgentWorkingMemory {
 	private final static int MAX_TIME = 10;
 	private final static float MEM_DECAY = 0.5f;
 
-	private ObjectGrid2D memoryGrid;
-
 	/*
 	 * This was originally a queue ordered by the time at which the fact was observed.
 	 * However, when updating the memory a queue is very slow.
 	 * Here we trade off memory (in that we maintain a complete image of the map)
 	 * for speed of update. Updating the memory is a lot more straightforward.
+	 * The image is a TWMemoryStore: the TWCellType code of every cell, which
+	 * isCellBlocked reads and planners can take whole (getCellTypes), and for
+	 * remembered cells the entity and the step it was seen in, kept only for
+	 * the parts of a large map the agent has actually seen.
 	 */
-	private TWAgentPercept[][] objects;
-	/**
-	 * Number of items recorded in memory, currently doesn't decrease as memory
-	 * is not degraded - nothing is ever removed!
-	 */
-	private int memorySize;
+	private TWMemoryStore store;
+	/** the store as a grid of entities, for getMemoryGrid */
+	private TWMemoryGrid memoryGrid;
 
 	/**
 	 * Stores (for each TWObject type) the closest object within sensor range,
 	 * null if no objects are in sensor range
 	 */
 	private HashMap<Class<?>, TWEntity> closestInSensorRange;
-	static private List<Int2D> spiral = new NeighbourSpiral(Parameters.defaultSensorRange * 4).spiral();
+	private List<Int2D> spiral;
 	//    private List<TWAgent> neighbouringAgents = new ArrayList<TWAgent>();
 
 	// x, y: the dimension of the grid
@@ -77,10 +75,11 @@ public class TWAgentWorkingMemory {
 		closestInSensorRange = new HashMap<Class<?>, TWEntity>(4);
 		this.me = moi;
 
-		this.objects = new TWAgentPercept[x][y];
+		this.store = new TWMemoryStore(x, y, MAX_TIME + 2);
+		this.memoryGrid = new TWMemoryGrid(this, store);
 
 		this.schedule = schedule;
-		this.memoryGrid = new ObjectGrid2D(me.getEnvironment().getxDimension(), me.getEnvironment().getyDimension());
+		this.spiral = new NeighbourSpiral(me.getEnvironment().getConfig().getSensorRange() * 4).spiral();
 	}
 
 	/**
@@ -117,16 +116,9 @@ public class TWAgentWorkingMemory {
 			if (!(o instanceof TWObject)) {
 				continue;
 			}
-			
-			//if nothing in memory currently, then were increasing the number 
-			//of items we have in memory by 1
-			//if(objects[objectXCoords.get(i)][objectYCoords.get(i)] == null) memorySize++;
-			if(objects[o.getX()][o.getY()] == null) memorySize++;
-			
-			//Add the object to memory
-			objects[o.getX()][o.getY()] = new TWAgentPercept(o, this.getSimulationTime());
 
-			memoryGrid.set(o.getX(), o.getY(), o);
+			//Add the object to memory
+			remember(o);
 
 			updateClosest(o);
 
@@ -148,6 +140,26 @@ public class TWAgentWorkingMemory {
 		//        }
 	}
 
+	/**
+	 * Same as the Bag version, for a sensor's reusable reading. Nothing is
+	 * allocated, the store is written in place.
+	 *
+	 * @param reading what the sensor saw, only valid during this call
+	 */
+	public void updateMemory(TWSensorReading reading) {
+		closestInSensorRange.clear();
+
+		for (int i = 0; i < reading.getObjectCount(); i++) {
+			TWEntity o = reading.getObject(i);
+			if (!(o instanceof TWObject)) {
+				continue;
+			}
+			remember(o);
+
+			updateClosest(o);
+		}
+	}
+
 	//    public TWAgent getNeighbour(){
 	//        if(neighbouringAgents.isEmpty()){
 	//            return null;
@@ -163,7 +175,11 @@ public class TWAgentWorkingMemory {
 	public void updateMemory(TWEntity[][] sensed, int xOffset, int yOffset) {
 		for (int x = 0; x < sensed.length; x++) {
 			for (int y = 0; y < sensed[x].length; y++) {
-				objects[x + xOffset][y + yOffset] = new TWAgentPercept(sensed[x][y], this.getSimulationTime());
+				if (sensed[x][y] != null) {
+					remember(sensed[x][y]);
+				} else {
+					removeAgentPercept(x + xOffset, y + yOffset);
+				}
 			}
 		}
 	}
@@ -190,9 +206,16 @@ public class TWAgentWorkingMemory {
 
 
 	public void removeAgentPercept(int x, int y){
-		objects[x][y] = null;
+		store.forget(x, y);
 	}
 
+	/**
+	 * Records o, at its own position, as seen now. Every write to the memory
+	 * goes through here, including those made through getMemoryGrid().
+	 */
+	protected void remember(TWEntity o) {
+		store.remember(o.getX(), o.getY(), o, getSimulationStep());
+	}
 
 	public void removeObject(TWEntity o){
 		removeAgentPercept(o.getX(), o.getY());
@@ -206,6 +229,13 @@ public class TWAgentWorkingMemory {
 		return schedule.getTime();
 	}
 
+	/**
+	 * @return the current step, as the store records it
+	 */
+	protected int getSimulationStep() {
+		return (int) schedule.getTime();
+	}
+
 	/**
 	 * Finds a nearby tile we have seen less than threshold timesteps ago
 	 *
@@ -229,7 +259,7 @@ public class TWAgentWorkingMemory {
 	 * Returns the number of items currently in memory
 	 */
 	public int getMemorySize() {
-		return memorySize;
+		return store.size();
 	}
 
 
@@ -266,11 +296,11 @@ public class TWAgentWorkingMemory {
 			x = offset.x + sx;
 			y = offset.y + sy;
 
-			if (me.getEnvironment().isInBounds(x, y) && objects[x][y] != null) {
-				o = (TWObject) objects[x][y].getO();//get mem object
+			if (me.getEnvironment().isInBounds(x, y) && store.isRemembered(x, y)) {
+				o = (TWObject) store.getEntity(x, y);//get mem object
 				if (type.isInstance(o)) {//if it's not the type we're looking for do nothing
 
-					time = objects[x][y].getT();//get time of memory
+					time = store.getTick(x, y);//get time of memory
 
 					if (this.getSimulationTime() - time <= threshold) {
 						//if we found one satisfying time, then return
@@ -316,18 +346,33 @@ public class TWAgentWorkingMemory {
 	 * @return true if the cell is blocked in our memory
 	 */
 	public boolean isCellBlocked(int tx, int ty) {
+		//no memory at all reads as EMPTY, so assume not blocked
+		return store.getType(tx, ty) == TWCellType.OBSTACLE;
+	}
 
-		//no memory at all, so assume not blocked
-		if (objects[tx][ty] == null) {
-			return false;
-		}
+	/**
+	 * @return the TWCellType code of what we remember at x,y
+	 */
+	public byte getCellType(int x, int y) {
+		return store.getType(x, y);
+	}
 
-		TWEntity e = (TWEntity) objects[tx][ty].getO();
-		//is it an obstacle?
-		return (e instanceof TWObstacle);
+	/**
+	 * @return the remembered cell types, index x * height + y. Read only, it
+	 * is the live array.
+	 */
+	public byte[] getCellTypes() {
+		return store.getTypes();
+	}
+
+	/**
+	 * @return what the memory holds, for subclasses
+	 */
+	protected TWMemoryStore getStore() {
+		return store;
 	}
 
-	public ObjectGrid2D getMemoryGrid() {
+	public TWMemoryGrid getMemoryGrid() {
 		return this.memoryGrid;
 	}
 }
@@ -0,0 +1,61 @@
+package tileworld.agent;
+
+import sim.field.grid.ObjectGrid2D;
+import tileworld.environment.TWEntity;
+
+/**
+ * TWMemoryGrid
+ *
+ * Description:
+ *
+ * The remembered entities of a working memory seen as a grid, as returned by
+ * getMemoryGrid(). It holds nothing itself: get reads the memory's
+ * TWMemoryStore and set goes through the memory, so a write from outside
+ * (an agent dropping a tile it picked up, say) updates the cell type and
+ * anything the memory keeps about the cell the same way its own updates do.
+ * getDisplayGrid gives the GUI portrayals a plain ObjectGrid2D.
+ */
+public class TWMemoryGrid {
+
+    private final TWAgentWorkingMemory memory;
+    private final TWMemoryStore store;
+
+    TWMemoryGrid(TWAgentWorkingMemory memory, TWMemoryStore store) {
+        this.memory = memory;
+        this.store = store;
+    }
+
+    public int getWidth() {
+        return store.getWidth();
+    }
+
+    public int getHeight() {
+        return store.getHeight();
+    }
+
+    /**
+     * @return the entity remembered at x,y, null if none
+     */
+    public Object get(int x, int y) {
+        return store.getEntity(x, y);
+    }
+
+    /**
+     * Remembers o as just seen, or forgets x,y if o is null. An entity is
+     * remembered at its own position, which should be x,y.
+     */
+    public void set(int x, int y, Object o) {
+        if (o == null) {
+            memory.removeAgentPercept(x, y);
+        } else {
+            memory.remember((TWEntity) o);
+        }
+    }
+
+    /**
+     * @see TWMemoryStore#getDisplayGrid()
+     */
+    public ObjectGrid2D getDisplayGrid() {
+        return store.getDisplayGrid();
+    }
+}
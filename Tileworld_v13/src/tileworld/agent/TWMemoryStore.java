@@ -0,0 +1,305 @@
+package tileworld.agent;
+
+import java.util.Arrays;
+import sim.field.grid.ObjectGrid2D;
+import sim.util.IntBag;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWChunkedGrid;
+import tileworld.environment.TWEntity;
+
+/**
+ * TWMemoryStore
+ *
+ * Description:
+ *
+ * Everything an agent's working memory knows about the cells of the map, as
+ * plain arrays instead of a TWAgentPercept object per remembered cell plus a
+ * second grid of the entities:
+ *
+ *   - the TWCellType of every cell, one dense byte array (getTypes), which
+ *     the planners index directly;
+ *   - for remembered cells, the step they were observed in, the step they
+ *     are due to be forgotten in and the entity seen there.
+ *
+ * The per cell values are kept in square chunks of CHUNK x CHUNK cells, a
+ * flat array per value, made when the first cell in them is remembered and
+ * dropped when the last one is forgotten, so a large map costs only the areas
+ * the agent remembers. The expiry array of a chunk is only made once
+ * something in it is given an expiry. Reading and writing allocate nothing
+ * once a chunk exists.
+ *
+ * Cells given an expiry step (expireAt) are also put in a timing wheel by
+ * that step, like TWExpiryQueue does for the world's objects, so expire only
+ * looks at the cells due.
+ */
+public class TWMemoryStore implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int CHUNK_BITS = 4;
+    public static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+
+    /** getTick of a cell not remembered, and the expiry of one never given any */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private final int width, height;
+    private final byte[] types;
+
+    /**
+     * The per cell values of a chunk, slot (x mod CHUNK) * CHUNK + y mod CHUNK.
+     */
+    private static class Chunk implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int[] ticks = new int[CHUNK * CHUNK];
+        final TWEntity[] entities = new TWEntity[CHUNK * CHUNK];
+        /** null until a cell in the chunk is given an expiry */
+        int[] expiries;
+        /** remembered cells */
+        int count;
+    }
+
+    /** chunks per column of chunks, i.e. along y */
+    private final int chunksHigh;
+    /** index cx * chunksHigh + cy, null while nothing is remembered there */
+    private final Chunk[] chunks;
+    private int size;
+
+    /** cells by expiry step, bucket step % length */
+    private IntBag[] wheel;
+    /** first step whose bucket has not been emptied yet */
+    private int nextStep;
+
+    private ObjectGrid2D display;
+
+    /**
+     * @param horizon how many steps ahead expiries usually are, the wheel
+     * grows if they turn out to be further
+     */
+    public TWMemoryStore(int width, int height, int horizon) {
+        this.width = width;
+        this.height = height;
+        this.types = new byte[width * height];
+        int chunksWide = (width + MASK) >> CHUNK_BITS;
+        this.chunksHigh = (height + MASK) >> CHUNK_BITS;
+        this.chunks = new Chunk[chunksWide * chunksHigh];
+        this.wheel = new IntBag[Math.max(1, horizon)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new IntBag();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of cells remembered
+     */
+    public int size() {
+        return size;
+    }
+
+    public byte getType(int x, int y) {
+        return types[x * height + y];
+    }
+
+    /**
+     * @return the TWCellType of every cell, index x * height + y. Read only,
+     * it is the live array.
+     */
+    public byte[] getTypes() {
+        return types;
+    }
+
+    public boolean isRemembered(int x, int y) {
+        return types[x * height + y] != TWCellType.EMPTY;
+    }
+
+    /**
+     * @return the entity remembered at x,y, null if none
+     */
+    public TWEntity getEntity(int x, int y) {
+        Chunk chunk = chunks[chunk(x, y)];
+        return chunk == null ? null : chunk.entities[slot(x, y)];
+    }
+
+    /**
+     * @return the step x,y was last observed in, NONE if not remembered
+     */
+    public int getTick(int x, int y) {
+        Chunk chunk = chunks[chunk(x, y)];
+        return chunk == null || !isRemembered(x, y) ? NONE : chunk.ticks[slot(x, y)];
+    }
+
+    /**
+     * @return the step x,y is due to be forgotten in, NONE if it has none
+     */
+    public int getExpiry(int x, int y) {
+        Chunk chunk = chunks[chunk(x, y)];
+        return chunk == null || chunk.expiries == null || !isRemembered(x, y) ? NONE : chunk.expiries[slot(x, y)];
+    }
+
+    /**
+     * Remembers e at x,y as observed in step tick, replacing what was there.
+     * A cell that was not remembered yet starts without an expiry.
+     */
+    public void remember(int x, int y, TWEntity e, int tick) {
+        if (e == null) {
+            forget(x, y);
+            return;
+        }
+        int c = chunk(x, y), s = slot(x, y);
+        Chunk chunk = chunks[c];
+        if (chunk == null) {
+            chunk = chunks[c] = new Chunk();
+        }
+        int cell = x * height + y;
+        if (types[cell] == TWCellType.EMPTY) {
+            chunk.count++;
+            size++;
+            if (chunk.expiries != null) {
+                chunk.expiries[s] = NONE;
+            }
+        }
+        types[cell] = TWCellType.of(e);
+        chunk.ticks[s] = tick;
+        chunk.entities[s] = e;
+        if (display != null) {
+            display.set(x, y, e);
+        }
+    }
+
+    /**
+     * Forgets x,y, if it was remembered.
+     */
+    public void forget(int x, int y) {
+        int cell = x * height + y;
+        if (types[cell] == TWCellType.EMPTY) {
+            return;
+        }
+        types[cell] = TWCellType.EMPTY;
+        int c = chunk(x, y);
+        Chunk chunk = chunks[c];
+        chunk.entities[slot(x, y)] = null;
+        size--;
+        if (--chunk.count == 0) {
+            chunks[c] = null;
+        }
+        if (display != null) {
+            display.set(x, y, null);
+        }
+    }
+
+    /**
+     * Sets the step the remembered cell x,y is due in, replacing any earlier
+     * one. Does nothing if x,y is not remembered.
+     */
+    public void expireAt(int x, int y, int step) {
+        Chunk chunk = chunks[chunk(x, y)];
+        if (chunk == null || !isRemembered(x, y)) {
+            return;
+        }
+        if (chunk.expiries == null) {
+            chunk.expiries = new int[CHUNK * CHUNK];
+            Arrays.fill(chunk.expiries, NONE);
+        }
+        chunk.expiries[slot(x, y)] = step;
+        if (step < nextStep) {
+            //already due, comes out with the next expire call
+            step = nextStep;
+        }
+        if (step - nextStep >= wheel.length) {
+            grow(step - nextStep + 1);
+        }
+        wheel[step % wheel.length].add(x * height + y);
+    }
+
+    /**
+     * Calls v for every remembered cell due at or before step now. The cell
+     * is still remembered during the call, v normally forgets it; a cell
+     * still due and remembered after the call comes out again next time.
+     * Cells forgotten or given a later expiry since they were queued are
+     * skipped.
+     */
+    public void expire(int now, TWChunkedGrid.CellVisitor v) {
+        for (; nextStep <= now; nextStep++) {
+            IntBag bucket = wheel[nextStep % wheel.length];
+            for (int i = 0; i < bucket.numObjs; i++) {
+                int cell = bucket.objs[i];
+                int x = cell / height, y = cell % height;
+                int expiry = getExpiry(x, y);
+                if (expiry != NONE && expiry <= now) {
+                    v.visit(x, y, getEntity(x, y));
+                }
+            }
+            bucket.clear();
+        }
+    }
+
+    /**
+     * Calls v for every remembered cell, chunk by chunk, skipping the chunks
+     * with nothing in them. v may forget the cell it is given.
+     */
+    public void forEach(TWChunkedGrid.CellVisitor v) {
+        for (int c = 0; c < chunks.length; c++) {
+            Chunk chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            int x0 = (c / chunksHigh) << CHUNK_BITS;
+            int y0 = (c % chunksHigh) << CHUNK_BITS;
+            TWEntity[] entities = chunk.entities;
+            for (int s = 0; s < entities.length; s++) {
+                if (entities[s] != null) {
+                    v.visit(x0 + (s >> CHUNK_BITS), y0 + (s & MASK), entities[s]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a dense ObjectGrid2D of the remembered entities, for
+     * portrayals. Made on the first call and kept in step from then on.
+     */
+    public ObjectGrid2D getDisplayGrid() {
+        if (display == null) {
+            display = new ObjectGrid2D(width, height);
+            forEach(display::set);
+        }
+        return display;
+    }
+
+    private void grow(int span) {
+        int length = wheel.length;
+        while (length < span) {
+            length *= 2;
+        }
+        IntBag[] grown = new IntBag[length];
+        for (int i = 0; i < length; i++) {
+            grown[i] = new IntBag();
+        }
+        //every pending bucket holds a single step, it lies within one turn of nextStep
+        for (int k = 0; k < wheel.length; k++) {
+            int step = nextStep + k;
+            IntBag bucket = wheel[step % wheel.length];
+            for (int i = 0; i < bucket.numObjs; i++) {
+                grown[step % length].add(bucket.objs[i]);
+            }
+        }
+        wheel = grown;
+    }
+
+    private int chunk(int x, int y) {
+        return (x >> CHUNK_BITS) * chunksHigh + (y >> CHUNK_BITS);
+    }
+
+    private static int slot(int x, int y) {
+        return ((x & MASK) << CHUNK_BITS) | (y & MASK);
+    }
+}
@@ -0,0 +1,185 @@
+package tileworld.agent;
+
+import java.util.Arrays;
+import java.util.List;
+import sim.engine.ParallelSequence;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWEntity;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * TWSensingPass
+ *
+ * Description:
+ *
+ * Senses for the whole team at once, in place of every agent reading its own
+ * window. Scheduled once per step by the environment when TWConfig
+ * sensingThreads is above 0.
+ *
+ * The agents are kept sorted by position, x first. The grid is then swept in
+ * the order it is stored (x * height + y, so one x at a time with y
+ * running), and every non empty cell read is handed to the sensor of every
+ * agent whose window covers it. Where windows of nearby agents overlap the
+ * cell is read once instead of once per agent, and the reads go through the
+ * grid in memory order rather than jumping from window to window.
+ *
+ * The sorted agents are cut into as many stripes as threads, each a band of x
+ * values, and the stripes are swept in parallel. A stripe only writes to the
+ * sensors of its own agents, it just reads the cells of the neighbouring
+ * bands its windows reach into, so the stripes share nothing they write.
+ *
+ * Once the sensors are filled the agents sense and communicate one after the
+ * other as before; sense() then finds its sensor up to date and only passes
+ * the reading on to memory.
+ */
+public class TWSensingPass implements Steppable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TWEnvironment env;
+    private final List<TWAgent> agents;
+    private final int range;
+    /** agents ordered by x then y, re-sorted every step */
+    private TWAgent[] sorted = new TWAgent[0];
+    private final Stripe[] stripes;
+    private final Steppable sweep;
+
+    /**
+     * @param agents the environment's agents, read every step
+     * @param threads number of stripes swept at the same time, at least 1
+     */
+    public TWSensingPass(TWEnvironment env, List<TWAgent> agents, int threads) {
+        this.env = env;
+        this.agents = agents;
+        this.range = env.getConfig().getSensorRange();
+        this.stripes = new Stripe[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.sweep = threads == 1 ? stripes[0] : new ParallelSequence(stripes, threads);
+    }
+
+    public void step(SimState state) {
+        sort();
+        int n = sorted.length;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].from = (int) ((long) n * i / stripes.length);
+            stripes[i].to = (int) ((long) n * (i + 1) / stripes.length);
+        }
+        sweep.step(state);
+
+        for (TWAgent a : agents) {
+            a.sense();
+            a.communicate();
+        }
+    }
+
+    /**
+     * Stops the threads of the parallel sweep, if any.
+     */
+    public void cleanup() {
+        if (sweep instanceof ParallelSequence) {
+            ((ParallelSequence) sweep).cleanup();
+        }
+    }
+
+    /**
+     * Insertion sort, as agents move at most one cell a step the order from
+     * the last step is nearly right already.
+     */
+    private void sort() {
+        if (sorted.length != agents.size()) {
+            sorted = agents.toArray(new TWAgent[agents.size()]);
+        }
+        for (int i = 1; i < sorted.length; i++) {
+            TWAgent a = sorted[i];
+            int j = i - 1;
+            while (j >= 0 && before(a, sorted[j])) {
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = a;
+        }
+    }
+
+    private static boolean before(TWAgent a, TWAgent b) {
+        return a.getX() < b.getX() || (a.getX() == b.getX() && a.getY() < b.getY());
+    }
+
+    /**
+     * Sweeps the windows of sorted[from .. to - 1].
+     */
+    private class Stripe implements Steppable {
+
+        private static final long serialVersionUID = 1L;
+
+        int from, to;
+        /** y of the agents covering the current x, sorted */
+        private int[] ys = new int[8];
+
+        public void step(SimState state) {
+            if (from == to) {
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                sorted[i].sensor.beginPass();
+            }
+
+            byte[] cellTypes = env.getCellTypes();
+            int height = env.getyDimension();
+            int maxX = Math.min(env.getxDimension() - 1, sorted[to - 1].getX() + range);
+            //agents whose window covers x are sorted[lo .. hi - 1]
+            int lo = from, hi = from;
+            for (int x = Math.max(0, sorted[from].getX() - range); x <= maxX; x++) {
+                while (hi < to && sorted[hi].getX() <= x + range) {
+                    hi++;
+                }
+                while (lo < hi && sorted[lo].getX() < x - range) {
+                    lo++;
+                }
+                if (lo == hi) {
+                    //skip to the next window
+                    x = sorted[hi].getX() - range - 1;
+                    continue;
+                }
+
+                //their y ranges, merged so overlapping windows read a cell once
+                int n = hi - lo;
+                if (ys.length < n) {
+                    ys = new int[n * 2];
+                }
+                for (int i = 0; i < n; i++) {
+                    ys[i] = sorted[lo + i].getY();
+                }
+                Arrays.sort(ys, 0, n);
+                int column = x * height;
+                for (int k = 0; k < n; ) {
+                    int y0 = Math.max(0, ys[k] - range);
+                    int y1 = ys[k++] + range;
+                    while (k < n && ys[k] - range <= y1 + 1) {
+                        y1 = ys[k++] + range;
+                    }
+                    y1 = Math.min(height - 1, y1);
+                    for (int y = y0; y <= y1; y++) {
+                        byte type = cellTypes[column + y];
+                        if (type == TWCellType.EMPTY) {
+                            continue;
+                        }
+                        TWEntity e = (TWEntity) env.getObjectGrid().get(x, y);
+                        for (int i = lo; i < hi; i++) {
+                            if (Math.abs(sorted[i].getY() - y) <= range) {
+                                sorted[i].sensor.see(x, y, e, type);
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int i = from; i < to; i++) {
+                sorted[i].sensor.endPass();
+            }
+        }
+    }
+}
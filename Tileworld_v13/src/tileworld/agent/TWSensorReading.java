@@ -0,0 +1,153 @@
+package tileworld.agent;
+
+import java.util.Arrays;
+import tileworld.environment.TWEntity;
+
+/**
+ * TWSensorReading
+ *
+ * Description:
+ *
+ * What a TWAgentSensor currently sees, held in flat arrays the sensor owns
+ * and keeps up to date, so sensing creates no Bags. Object i is getObject(i)
+ * at getObjectX(i), getObjectY(i) with TWCellType getObjectType(i); agents
+ * are listed the same way. The arrays are sized for the whole sensor window
+ * up front and never need to grow.
+ *
+ * The sensor adds and removes objects as cells come into view or change, so
+ * their order is arbitrary. Agents move every step and few readers want
+ * them, so they are only looked up when first asked for after a refresh.
+ *
+ * A reading changes with every refresh of its sensor, memories must copy
+ * what they want to keep.
+ */
+public class TWSensorReading {
+
+    private int objectCount;
+    private TWEntity[] objects;
+    private int[] objectX, objectY;
+    private byte[] objectTypes;
+
+    private final TWAgentSensor source;
+    private boolean agentsSensed;
+    private int agentCount;
+    private TWAgent[] agents;
+    private int[] agentX, agentY;
+
+    /**
+     * @param source the sensor asked for the agents in view
+     * @param capacity cells in the sensor window, (2r+1)^2
+     */
+    public TWSensorReading(TWAgentSensor source, int capacity) {
+        this.source = source;
+        objects = new TWEntity[capacity];
+        objectX = new int[capacity];
+        objectY = new int[capacity];
+        objectTypes = new byte[capacity];
+        agents = new TWAgent[capacity];
+        agentX = new int[capacity];
+        agentY = new int[capacity];
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    public TWEntity getObject(int i) {
+        return objects[i];
+    }
+
+    public int getObjectX(int i) {
+        return objectX[i];
+    }
+
+    public int getObjectY(int i) {
+        return objectY[i];
+    }
+
+    /**
+     * @return the TWCellType of object i
+     */
+    public byte getObjectType(int i) {
+        return objectTypes[i];
+    }
+
+    public int getAgentCount() {
+        if (!agentsSensed) {
+            agentsSensed = true;
+            source.senseAgents();
+        }
+        return agentCount;
+    }
+
+    /**
+     * @param i from 0 to getAgentCount() - 1
+     */
+    public TWAgent getAgent(int i) {
+        return agents[i];
+    }
+
+    public int getAgentX(int i) {
+        return agentX[i];
+    }
+
+    public int getAgentY(int i) {
+        return agentY[i];
+    }
+
+    /**
+     * Drops every object, and the references to them.
+     */
+    void clearObjects() {
+        Arrays.fill(objects, 0, objectCount, null);
+        objectCount = 0;
+    }
+
+    /**
+     * Removes object i by moving the last object into its place.
+     */
+    void removeObject(int i) {
+        int last = --objectCount;
+        objects[i] = objects[last];
+        objectX[i] = objectX[last];
+        objectY[i] = objectY[last];
+        objectTypes[i] = objectTypes[last];
+        objects[last] = null;
+    }
+
+    /**
+     * Forgets the agents, they are looked up again when next asked for.
+     */
+    void resetAgents() {
+        Arrays.fill(agents, 0, agentCount, null);
+        agentCount = 0;
+        agentsSensed = false;
+    }
+
+    void addObject(TWEntity o, int x, int y, byte type) {
+        if (objectCount == objects.length) {
+            //only if the window grew since the reading was made
+            int n = objectCount * 2 + 1;
+            objects = Arrays.copyOf(objects, n);
+            objectX = Arrays.copyOf(objectX, n);
+            objectY = Arrays.copyOf(objectY, n);
+            objectTypes = Arrays.copyOf(objectTypes, n);
+        }
+        objects[objectCount] = o;
+        objectX[objectCount] = x;
+        objectY[objectCount] = y;
+        objectTypes[objectCount++] = type;
+    }
+
+    void addAgent(TWAgent a, int x, int y) {
+        if (agentCount == agents.length) {
+            int n = agentCount * 2 + 1;
+            agents = Arrays.copyOf(agents, n);
+            agentX = Arrays.copyOf(agentX, n);
+            agentY = Arrays.copyOf(agentY, n);
+        }
+        agents[agentCount] = a;
+        agentX[agentCount] = x;
+        agentY[agentCount++] = y;
+    }
+}
@@ -0,0 +1,60 @@
+package tileworld.environment;
+
+/**
+ * TWCellType
+ *
+ * Description:
+ *
+ * Byte codes for what a cell holds. The environment and the agents' working
+ * memory keep one code per cell (index x * height + y) next to their object
+ * grids, so the hot checks - is it blocked, is there a tile - are an array
+ * read and a compare instead of a grid lookup, a cast and an instanceof.
+ */
+public final class TWCellType {
+
+    public static final byte EMPTY = 0;
+    public static final byte TILE = 1;
+    public static final byte HOLE = 2;
+    public static final byte OBSTACLE = 3;
+    public static final byte FUEL_STATION = 4;
+    /** anything else on the grid */
+    public static final byte OTHER = 5;
+
+    private TWCellType() {
+    }
+
+    /**
+     * @return the code for o, EMPTY for null
+     */
+    public static byte of(Object o) {
+        if (o == null) {
+            return EMPTY;
+        } else if (o instanceof TWTile) {
+            return TILE;
+        } else if (o instanceof TWHole) {
+            return HOLE;
+        } else if (o instanceof TWObstacle) {
+            return OBSTACLE;
+        } else if (o instanceof TWFuelStation) {
+            return FUEL_STATION;
+        }
+        return OTHER;
+    }
+
+    /**
+     * @return the code every instance of c has, or -1 if instances of c can
+     * have different codes (TWObject, say)
+     */
+    public static byte ofClass(Class<?> c) {
+        if (TWTile.class.isAssignableFrom(c)) {
+            return TILE;
+        } else if (TWHole.class.isAssignableFrom(c)) {
+            return HOLE;
+        } else if (TWObstacle.class.isAssignableFrom(c)) {
+            return OBSTACLE;
+        } else if (TWFuelStation.class.isAssignableFrom(c)) {
+            return FUEL_STATION;
+        }
+        return -1;
+    }
+}
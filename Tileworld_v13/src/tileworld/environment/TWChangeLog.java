@@ -0,0 +1,72 @@
+package tileworld.environment;
+
+import java.util.Arrays;
+
+/**
+ * TWChangeLog
+ *
+ * Description:
+ *
+ * The cells of the object grid written recently, in order. Every entry has a
+ * sequence number that keeps counting up for the whole run, so a reader only
+ * has to remember the position it read up to (getPosition) and can then go
+ * through the cells changed since.
+ *
+ * The log is trimmed once per step by the environment, and always keeps at
+ * least everything written since the start of the previous step. A reader
+ * that looks at least once a step therefore never misses an entry; one that
+ * falls further behind finds covers() false and has to look at the grid
+ * itself again.
+ */
+public class TWChangeLog {
+
+    private int[] cells = new int[64];
+    private int count;
+    /** sequence number of cells[0] */
+    private long base;
+    /** position when trim was last called */
+    private long mark;
+
+    /**
+     * @param cell the cell written, x * height + y
+     */
+    public void record(int cell) {
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, count * 2);
+        }
+        cells[count++] = cell;
+    }
+
+    /**
+     * @return the sequence number the next entry will get
+     */
+    public long getPosition() {
+        return base + count;
+    }
+
+    /**
+     * @return true if every entry from position on is still held
+     */
+    public boolean covers(long position) {
+        return position >= base;
+    }
+
+    /**
+     * @param seq a sequence number from covers(seq) up to getPosition() - 1
+     * @return the cell written, x * height + y
+     */
+    public int get(long seq) {
+        return cells[(int) (seq - base)];
+    }
+
+    /**
+     * Drops the entries from before the previous call.
+     */
+    public void trim() {
+        int drop = (int) (mark - base);
+        System.arraycopy(cells, drop, cells, 0, count - drop);
+        count -= drop;
+        base = mark;
+        mark = getPosition();
+    }
+}
@@ -0,0 +1,200 @@
+package tileworld.environment;
+
+import sim.field.grid.ObjectGrid2D;
+import sim.util.Bag;
+import sim.util.IntBag;
+
+/**
+ * TWChunkedGrid
+ *
+ * Description:
+ *
+ * A sparse stand-in for ObjectGrid2D, for worlds too large to hold one
+ * reference per cell. The grid is cut into square chunks of CHUNK x CHUNK
+ * cells; a chunk's array is allocated on the first write of a non-null value
+ * into it and dropped again when its last value is cleared, so memory follows
+ * the number of occupied areas rather than the size of the world. Reading an
+ * unallocated chunk simply gives null.
+ *
+ * get, set, getWidth, getHeight and getNeighborsMaxDistance behave as on
+ * ObjectGrid2D (non toroidal), so code written against the dense grid reads
+ * the same. MASON's portrayals still need a real ObjectGrid2D: getDisplayGrid
+ * creates a dense copy on first call and keeps it up to date from then on,
+ * so only runs with a display pay for it.
+ */
+public class TWChunkedGrid implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int CHUNK_BITS = 5;
+    public static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+
+    /** Visitor for forEach. */
+    public interface CellVisitor {
+        void visit(int x, int y, Object o);
+    }
+
+    private final int width, height;
+    /** chunks per column of chunks, i.e. along y */
+    private final int chunksHigh;
+    /** chunk arrays, index cx * chunksHigh + cy, null while empty */
+    private final Object[][] chunks;
+    /** non-null values held by each chunk */
+    private final int[] counts;
+    private int allocated;
+
+    private ObjectGrid2D display;
+
+    public TWChunkedGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int chunksWide = (width + MASK) >> CHUNK_BITS;
+        this.chunksHigh = (height + MASK) >> CHUNK_BITS;
+        this.chunks = new Object[chunksWide * chunksHigh][];
+        this.counts = new int[chunks.length];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Object get(int x, int y) {
+        Object[] chunk = chunks[chunk(x, y)];
+        return chunk == null ? null : chunk[slot(x, y)];
+    }
+
+    public void set(int x, int y, Object o) {
+        int c = chunk(x, y);
+        Object[] chunk = chunks[c];
+        if (chunk == null) {
+            if (o == null) {
+                return;
+            }
+            chunk = chunks[c] = new Object[CHUNK * CHUNK];
+            allocated++;
+        }
+        int s = slot(x, y);
+        Object old = chunk[s];
+        chunk[s] = o;
+        if (old == null && o != null) {
+            counts[c]++;
+        } else if (old != null && o == null && --counts[c] == 0) {
+            chunks[c] = null;
+            allocated--;
+        }
+        if (display != null) {
+            display.set(x, y, o);
+        }
+    }
+
+    /**
+     * Empties the grid and frees every chunk.
+     */
+    public void clear() {
+        java.util.Arrays.fill(chunks, null);
+        java.util.Arrays.fill(counts, 0);
+        allocated = 0;
+        if (display != null) {
+            display.clear();
+        }
+    }
+
+    /**
+     * @return number of chunks currently allocated
+     */
+    public int getAllocatedChunks() {
+        return allocated;
+    }
+
+    /**
+     * Calls v for every non-null cell, chunk by chunk, skipping empty chunks.
+     * v may clear the cell it is given.
+     */
+    public void forEach(CellVisitor v) {
+        for (int c = 0; c < chunks.length; c++) {
+            Object[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            int x0 = (c / chunksHigh) << CHUNK_BITS;
+            int y0 = (c % chunksHigh) << CHUNK_BITS;
+            for (int s = 0; s < chunk.length; s++) {
+                if (chunk[s] != null) {
+                    v.visit(x0 + (s >> CHUNK_BITS), y0 + (s & MASK), chunk[s]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the non-null values within max(|x - X|, |y - Y|) <= dist of x,y,
+     * the grid edges are not wrapped. Unlike the dense grid the coordinate
+     * bags hold the cells of the values returned, in the same order.
+     *
+     * @param result cleared and filled, a new bag if null
+     * @param xPos cleared and filled with x coordinates if not null
+     * @param yPos cleared and filled with y coordinates if not null
+     * @return result
+     */
+    public Bag getNeighborsMaxDistance(int x, int y, int dist, Bag result, IntBag xPos, IntBag yPos) {
+        if (result == null) {
+            result = new Bag();
+        } else {
+            result.clear();
+        }
+        if (xPos != null) {
+            xPos.clear();
+        }
+        if (yPos != null) {
+            yPos.clear();
+        }
+        int minX = Math.max(0, x - dist), maxX = Math.min(width - 1, x + dist);
+        int minY = Math.max(0, y - dist), maxY = Math.min(height - 1, y + dist);
+        for (int i = minX; i <= maxX; i++) {
+            for (int j = minY; j <= maxY; j++) {
+                Object[] chunk = chunks[chunk(i, j)];
+                if (chunk == null) {
+                    //jump to the end of this chunk's column
+                    j |= MASK;
+                    continue;
+                }
+                Object o = chunk[slot(i, j)];
+                if (o != null) {
+                    result.add(o);
+                    if (xPos != null) {
+                        xPos.add(i);
+                    }
+                    if (yPos != null) {
+                        yPos.add(j);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a dense ObjectGrid2D mirroring this grid, for portrayals. Made
+     * on the first call and kept in step by set from then on.
+     */
+    public ObjectGrid2D getDisplayGrid() {
+        if (display == null) {
+            display = new ObjectGrid2D(width, height);
+            forEach(display::set);
+        }
+        return display;
+    }
+
+    private int chunk(int x, int y) {
+        return (x >> CHUNK_BITS) * chunksHigh + (y >> CHUNK_BITS);
+    }
+
+    private static int slot(int x, int y) {
+        return ((x & MASK) << CHUNK_BITS) | (y & MASK);
+    }
+}
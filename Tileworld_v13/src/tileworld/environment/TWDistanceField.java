@@ -0,0 +1,266 @@
+package tileworld.environment;
+
+import java.util.Arrays;
+
+/**
+ * TWDistanceField
+ *
+ * Description:
+ *
+ * Shortest walking distance from every cell to one fixed goal (the fuel
+ * station, typically), together with the first step of a shortest route.
+ * Built once by a breadth first search out of the goal over the environment's
+ * obstacles; after that both queries are array lookups, so any number of
+ * agents can head for the same goal without searching.
+ *
+ * The environment calls obstacleAdded and obstacleRemoved as obstacles spawn
+ * and expire, and the field is repaired around the change only: an added
+ * obstacle invalidates the cells whose route went through it and those are
+ * filled again from their valid neighbours; a removed obstacle can only
+ * shorten routes, so distances are lowered outwards from the freed cell.
+ *
+ * Fields use the real obstacle layout, not any agent's memory.
+ */
+public class TWDistanceField {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final TWEnvironment env;
+    private final int width, height;
+    private final int goal;
+
+    /** steps to the goal, UNREACHABLE if there is no route */
+    private final int[] dist;
+    /** neighbour one step closer to the goal, -1 at the goal or if unreachable */
+    private final int[] next;
+
+    /** cells invalidated by an added obstacle, also used as the BFS queue */
+    private final int[] queue;
+    /** open list of the repair, (distance << 32 | cell) */
+    private long[] heap = new long[64];
+    private int heapSize;
+
+    public TWDistanceField(TWEnvironment env, int gx, int gy) {
+        this.env = env;
+        this.width = env.getxDimension();
+        this.height = env.getyDimension();
+        this.goal = index(gx, gy);
+        this.dist = new int[width * height];
+        this.next = new int[width * height];
+        this.queue = new int[width * height];
+        rebuild();
+    }
+
+    public int getGoalX() {
+        return goal / height;
+    }
+
+    public int getGoalY() {
+        return goal % height;
+    }
+
+    /**
+     * @return number of steps from x,y to the goal, UNREACHABLE if there is
+     * no route
+     */
+    public int getDistance(int x, int y) {
+        return dist[index(x, y)];
+    }
+
+    public boolean isReachable(int x, int y) {
+        return dist[index(x, y)] != UNREACHABLE;
+    }
+
+    /**
+     * @return the first move of a shortest route from x,y to the goal, Z at
+     * the goal or if the goal cannot be reached
+     */
+    public TWDirection getNextStep(int x, int y) {
+        int n = next[index(x, y)];
+        if (n < 0) {
+            return TWDirection.Z;
+        }
+        int dx = n / height - x;
+        int dy = n % height - y;
+        if (dx > 0) {
+            return TWDirection.E;
+        } else if (dx < 0) {
+            return TWDirection.W;
+        } else if (dy > 0) {
+            return TWDirection.S;
+        }
+        return TWDirection.N;
+    }
+
+    /**
+     * Recomputes the whole field from scratch.
+     */
+    public void rebuild() {
+        Arrays.fill(dist, UNREACHABLE);
+        Arrays.fill(next, -1);
+        dist[goal] = 0;
+        int head = 0, tail = 0;
+        queue[tail++] = goal;
+        while (head < tail) {
+            int u = queue[head++];
+            int ux = u / height, uy = u % height;
+            for (int k = 0; k < 4; k++) {
+                int v = neighbour(ux, uy, k);
+                if (v >= 0 && dist[v] == UNREACHABLE && !isBlocked(v)) {
+                    dist[v] = dist[u] + 1;
+                    next[v] = u;
+                    queue[tail++] = v;
+                }
+            }
+        }
+    }
+
+    /**
+     * An obstacle appeared at x,y.
+     */
+    public void obstacleAdded(int x, int y) {
+        int c = index(x, y);
+        if (dist[c] == UNREACHABLE) {
+            return;
+        }
+        //raise: drop every cell whose route runs through c
+        dist[c] = UNREACHABLE;
+        next[c] = -1;
+        int head = 0, tail = 0;
+        queue[tail++] = c;
+        while (head < tail) {
+            int u = queue[head++];
+            int ux = u / height, uy = u % height;
+            for (int k = 0; k < 4; k++) {
+                int v = neighbour(ux, uy, k);
+                if (v >= 0 && next[v] == u) {
+                    dist[v] = UNREACHABLE;
+                    next[v] = -1;
+                    queue[tail++] = v;
+                }
+            }
+        }
+        //seed the dropped cells from whatever valid neighbour they have left
+        heapSize = 0;
+        for (int i = 1; i < tail; i++) {
+            int u = queue[i];
+            attach(u);
+            if (dist[u] != UNREACHABLE) {
+                push(dist[u], u);
+            }
+        }
+        lower();
+    }
+
+    /**
+     * The obstacle at x,y has gone.
+     */
+    public void obstacleRemoved(int x, int y) {
+        int c = index(x, y);
+        if (isBlocked(c)) {
+            return;
+        }
+        heapSize = 0;
+        attach(c);
+        if (dist[c] != UNREACHABLE) {
+            push(dist[c], c);
+        }
+        lower();
+    }
+
+    /**
+     * Points u at its closest valid neighbour.
+     */
+    private void attach(int u) {
+        int ux = u / height, uy = u % height;
+        for (int k = 0; k < 4; k++) {
+            int v = neighbour(ux, uy, k);
+            if (v >= 0 && dist[v] != UNREACHABLE && dist[v] + 1 < dist[u]) {
+                dist[u] = dist[v] + 1;
+                next[u] = v;
+            }
+        }
+    }
+
+    /**
+     * Dijkstra from the queued cells, lowering every distance it improves.
+     */
+    private void lower() {
+        while (heapSize > 0) {
+            long top = pop();
+            int d = (int) (top >>> 32);
+            int u = (int) top;
+            if (d != dist[u]) {
+                continue;
+            }
+            int ux = u / height, uy = u % height;
+            for (int k = 0; k < 4; k++) {
+                int v = neighbour(ux, uy, k);
+                if (v >= 0 && d + 1 < dist[v] && !isBlocked(v)) {
+                    dist[v] = d + 1;
+                    next[v] = u;
+                    push(d + 1, v);
+                }
+            }
+        }
+    }
+
+    private int neighbour(int x, int y, int k) {
+        switch (k) {
+            case 0: return x + 1 < width ? index(x + 1, y) : -1;
+            case 1: return x > 0 ? index(x - 1, y) : -1;
+            case 2: return y + 1 < height ? index(x, y + 1) : -1;
+            default: return y > 0 ? index(x, y - 1) : -1;
+        }
+    }
+
+    private boolean isBlocked(int c) {
+        return env.isCellBlocked(c / height, c % height);
+    }
+
+    private int index(int x, int y) {
+        return x * height + y;
+    }
+
+    //---------------------------------------------------------------------
+    // binary heap of packed (distance, cell)
+
+    private void push(int d, int cell) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        long key = ((long) d << 32) | (cell & 0xffffffffL);
+        int slot = heapSize++;
+        while (slot > 0) {
+            int p = (slot - 1) >> 1;
+            if (heap[p] <= key) {
+                break;
+            }
+            heap[slot] = heap[p];
+            slot = p;
+        }
+        heap[slot] = key;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long key = heap[--heapSize];
+        int slot = 0;
+        int half = heapSize >> 1;
+        while (slot < half) {
+            int child = (slot << 1) + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= key) {
+                break;
+            }
+            heap[slot] = heap[child];
+            slot = child;
+        }
+        if (heapSize > 0) {
+            heap[slot] = key;
+        }
+        return top;
+    }
+}
@@ -55,7 +55,7 @@ public abstract class TWEntity{
     protected void setLocation(int xpos, int ypos){
         x=xpos;y=ypos;
         //Set location of entity when it's created
-        environment.getObjectGrid().set(x, y, this);
+        environment.setCell(x, y, this);
     }
 
     public void setLocation(Int2D pos){
@@ -106,6 +106,14 @@ public abstract class TWEntity{
         return getManhattanDistanceTo(x,y);
     }
 
+    /**
+     * Only for objects handed out again by a TWObjectPool, which were built
+     * with the no-argument constructor.
+     */
+    void setEnvironment(TWEnvironment env) {
+        this.environment = env;
+    }
+
     /**
      * @return the environment
      */
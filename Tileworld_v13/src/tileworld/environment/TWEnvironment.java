@@ -8,16 +8,16 @@ import java.util.concurrent.ThreadLocalRandom;
 
 import sim.engine.SimState;
 import sim.engine.Steppable;
-import sim.field.grid.ObjectGrid2D;
 import sim.util.Bag;
 import sim.util.Int2D;
 import sun.font.TrueTypeFont;
-import tileworld.Parameters;
+import tileworld.TWConfig;
 import tileworld.TWGUI;
 import tileworld.agent.Message;
 import tileworld.agent.MyAgent;
 import tileworld.agent.SimpleTWAgent;
 import tileworld.agent.TWAgent;
+import tileworld.agent.TWSensingPass;
 import tileworld.agent.MyAgent;
 
 /**
@@ -36,17 +36,24 @@ import tileworld.agent.MyAgent;
 public class TWEnvironment extends SimState implements Steppable {
 
 
-    //Parameters to configure the environment - read from main parameter file
-    private final int xDimension = Parameters.xDimension; //size in cells
-    private final int yDimension = Parameters.yDimension;
+    //settings of this run, see TWConfig
+    private final TWConfig config;
+    private final int xDimension; //size in cells
+    private final int yDimension;
     
     /**
-     * grid environment which stores all TWEntities, ObjectGrd is preferred over
-     * SparseGrid. The environment is typically not too sparse and we do not
-     * have multiple objects on the same cell.
+     * grid environment which stores all TWEntities. We do not have multiple
+     * objects on the same cell, so a grid is preferred over SparseGrid; it is
+     * chunked so large, mostly empty worlds only hold the occupied areas.
      */
-    private ObjectGrid2D objectGrid;
-    private ObjectGrid2D agentGrid;
+    private TWChunkedGrid objectGrid;
+    /** cells of objectGrid holding nothing, kept in step by setCell and clearCell */
+    private TWFreeCellSet freeCells;
+    /** TWCellType code of every objectGrid cell, index x * yDimension + y */
+    private byte[] cellTypes;
+    /** cells of objectGrid written recently, for sensors that only look at changes */
+    private TWChangeLog changeLog;
+    private TWChunkedGrid agentGrid;
     private ArrayList<TWAgent> agents;  // 添加agents列表
    
     private TWObjectCreator<TWTile> tileCreator;
@@ -55,13 +62,15 @@ public class TWEnvironment extends SimState implements Steppable {
     /**
      * Assumed all objects have same lifeTime now.
      */
-    //containers for all objects in the environment
-    private Bag tiles;
-    private Bag holes;
-    private Bag obstacles;
+    //container for all objects in the environment, ordered by time of death
+    private TWExpiryQueue expiryQueue;
+    private final Bag expired = new Bag();
     private TWFuelStation fuelingStation;
+    /** distance fields to fixed goals, kept up to date as obstacles come and go */
+    private ArrayList<TWDistanceField> distanceFields;
     
-    private ArrayList<Message> messages; // the communication channel
+    private TWMessageBus messageBus; // the communication channel
+    private TWSensingPass sensingPass; // senses for every agent at once, if configured
     
     private int reward;
 
@@ -78,30 +87,49 @@ public class TWEnvironment extends SimState implements Steppable {
     }
 
     public TWEnvironment(long seed) {
+        this(seed, new TWConfig());
+    }
+
+    /**
+     * Runs with config's seed.
+     */
+    public TWEnvironment(TWConfig config) {
+        this(config.getSeed(), config);
+    }
+
+    public TWEnvironment(long seed, TWConfig config) {
         super(seed);
+        this.config = config;
+        this.xDimension = config.getxDimension();
+        this.yDimension = config.getyDimension();
         this.agents = new ArrayList<TWAgent>();  // 初始化agents列表
 
         // create object creation distributions (assumed normal for now)
-        this.tileCreator = new TWObjectCreator<TWTile>(Parameters.tileMean, Parameters.tileDev,
-                tiles, this.random, new TWTile(), this);
-        this.holeCreator = new TWObjectCreator<TWHole>(Parameters.holeMean, Parameters.holeDev,
-                holes, this.random, new TWHole(), this);
-        this.obstacleCreator = new TWObjectCreator<TWObstacle>(Parameters.obstacleMean,
-                Parameters.obstacleDev, obstacles, this.random, new TWObstacle(), this);
-
-        tiles = new Bag();
-        holes = new Bag();
-        obstacles = new Bag();
-        reward = 0;
-        messages = new ArrayList<Message>();
+        this.tileCreator = new TWObjectCreator<TWTile>(config.getTileMean(), config.getTileDev(),
+                this.random, TWTile::new, this);
+        this.holeCreator = new TWObjectCreator<TWHole>(config.getHoleMean(), config.getHoleDev(),
+                this.random, TWHole::new, this);
+        this.obstacleCreator = new TWObjectCreator<TWObstacle>(config.getObstacleMean(),
+                config.getObstacleDev(), this.random, TWObstacle::new, this);
+
+        distanceFields = new ArrayList<TWDistanceField>();
     }
     
     @Override
     public void start() {
         super.start();
+        sensingPass = null;
         //create my grid
-        this.objectGrid = new ObjectGrid2D(getxDimension(), getyDimension());
-        this.agentGrid = new ObjectGrid2D(getxDimension(), getyDimension());
+        this.objectGrid = new TWChunkedGrid(getxDimension(), getyDimension());
+        this.freeCells = new TWFreeCellSet(getxDimension(), getyDimension());
+        this.cellTypes = new byte[getxDimension() * getyDimension()];
+        this.changeLog = new TWChangeLog();
+        this.agentGrid = new TWChunkedGrid(getxDimension(), getyDimension());
+        //a restart begins with no agents, objects, readers or score from the last run
+        this.agents.clear();
+        this.expiryQueue = new TWExpiryQueue(config.getLifeTime() + 1);
+        this.messageBus = new TWMessageBus(xDimension, yDimension, config.getCommRadius());
+        this.reward = 0;
         if(TWGUI.instance!=null){
             TWGUI.instance.resetDisplay();
         }
@@ -111,67 +139,74 @@ public class TWEnvironment extends SimState implements Steppable {
         schedule.scheduleRepeating(this, 1, 1.0);
         
         //Now we create some agents
-        Int2D pos = this.generateRandomLocation();
-        createAgent(new MyAgent("agent1", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
-        // createAgent(new SimpleTWAgent("agent1", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
-        // pos = this.generateRandomLocation();
-        // createAgent(new SimpleTWAgent("agent2", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
-        pos = this.generateRandomLocation();
-        createAgent(new MyAgent("agent2", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
-        pos = this.generateRandomLocation();
-        createAgent(new MyAgent("agent3", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
-        pos = this.generateRandomLocation();
-        createAgent(new MyAgent("agent4", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
+        Int2D pos;
+        for (int i = 1; i <= config.getAgentCount(); i++) {
+            pos = this.generateRandomLocation();
+            createAgent(newAgent(config.getAgentType(), "agent" + i, pos.getX(), pos.getY()));
+        }
         
 //        
         //create the fueling station
         pos = this.generateRandomLocation();
         fuelingStation = new TWFuelStation(pos.getX(), pos.getY(),this);
+        distanceFields.clear();
+        getDistanceField(fuelingStation.getX(), fuelingStation.getY());
+
+        //one sensing step for the whole team instead of one per agent
+        if (config.getSensingThreads() > 0) {
+            sensingPass = new TWSensingPass(this, agents, config.getSensingThreads());
+            schedule.scheduleRepeating(sensingPass, 2, 1.0);
+        }
 
 
 
     }
 
     private void createTWObjects(double time) {
-        try {
-            tiles.addAll(tileCreator.createTWObjects(time));
-            holes.addAll(holeCreator.createTWObjects(time));
-            obstacles.addAll(obstacleCreator.createTWObjects(time));
-        } catch (IllegalAccessException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (InstantiationException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        expiryQueue.addAll(tileCreator.createTWObjects(time));
+        expiryQueue.addAll(holeCreator.createTWObjects(time));
+        Bag created = obstacleCreator.createTWObjects(time);
+        expiryQueue.addAll(created);
+        for (int i = 0; i < created.size(); i++) {
+            TWObstacle o = (TWObstacle) created.get(i);
+            for (TWDistanceField field : distanceFields) {
+                field.obstacleAdded(o.getX(), o.getY());
+            }
         }
     }
 
     /**
-     * Horribly inefficient, Context is not ordered so need complete iteration of context to remove items.
-     * This is done every timestep
+     * Takes the objects dying now out of the expiry queue, so the cost is in
+     * the number of deaths rather than the number of live objects. Tiles
+     * already picked up and holes already filled are no longer on the grid
+     * (their cell may even hold a newer object), they are just dropped.
+     * Either way the object goes back to its creator's pool.
      */
     private void removeTWObjects(double timeNow) {
-
-        for (int i = 0; i < tiles.size(); i++) {
-            if (((TWObject) tiles.get(i)).getTimeLeft(timeNow) <= 0) {
-                this.objectGrid.set(((TWObject) tiles.get(i)).getX(), ((TWObject) tiles.get(i)).getY(), null);
-                tiles.remove(i);
-
-            }
-        }
-
-        for (int i = 0; i < holes.size(); i++) {
-            if (((TWObject) holes.get(i)).getTimeLeft(timeNow) <= 0) {
-                this.objectGrid.set(((TWObject) holes.get(i)).getX(), ((TWObject) holes.get(i)).getY(), null);
-                holes.remove(i);
+        expired.clear();
+        expiryQueue.expire(timeNow, expired);
+        for (int i = 0; i < expired.size(); i++) {
+            TWObject o = (TWObject) expired.get(i);
+            if (objectGrid.get(o.getX(), o.getY()) == o) {
+                clearCell(o.getX(), o.getY());
+                if (o instanceof TWObstacle) {
+                    for (TWDistanceField field : distanceFields) {
+                        field.obstacleRemoved(o.getX(), o.getY());
+                    }
+                }
             }
+            release(o, timeNow);
         }
+        expired.clear();
+    }
 
-        for (int i = 0; i < obstacles.size(); i++) {
-            if (((TWObject) obstacles.get(i)).getTimeLeft(timeNow) <= 0) {
-                this.objectGrid.set(((TWObject) obstacles.get(i)).getX(), ((TWObject) obstacles.get(i)).getY(), null);
-                obstacles.remove(i);
-            }
+    private void release(TWObject o, double time) {
+        if (o instanceof TWTile) {
+            tileCreator.release((TWTile) o, time);
+        } else if (o instanceof TWHole) {
+            holeCreator.release((TWHole) o, time);
+        } else if (o instanceof TWObstacle) {
+            obstacleCreator.release((TWObstacle) o, time);
         }
     }
 
@@ -182,27 +217,115 @@ public class TWEnvironment extends SimState implements Steppable {
         createTWObjects(time);
         // remove old objects (dead ones)
         removeTWObjects(time);
-        messages.clear(); // clear the messages in every time step
+        messageBus.clear(); // clear the messages in every time step
+        changeLog.trim();
         
         
     }
     
+    /**
+     * Returns the distance field towards a fixed goal, creating it on first
+     * use. Fields are shared by every agent and repaired as obstacles spawn
+     * and expire.
+     *
+     * @param x goal x coordinate
+     * @param y goal y coordinate
+     * @return the field for that goal
+     */
+    public TWDistanceField getDistanceField(int x, int y) {
+        for (TWDistanceField field : distanceFields) {
+            if (field.getGoalX() == x && field.getGoalY() == y) {
+                return field;
+            }
+        }
+        TWDistanceField field = new TWDistanceField(this, x, y);
+        distanceFields.add(field);
+        return field;
+    }
+
+    /**
+     * @return the distance field towards the fuel station
+     */
+    public TWDistanceField getFuelStationField() {
+        return getDistanceField(fuelingStation.getX(), fuelingStation.getY());
+    }
+
     public ArrayList<Message> getMessages(){
-    	return messages;
+    	return messageBus.getMessages();
+    }
+
+    public TWMessageBus getMessageBus() {
+        return messageBus;
     }
     
     public void receiveMessage(Message m){
-    	messages.add(m);
+    	messageBus.post(m);
+    }
+
+    /**
+     * Sends a message about cell x,y; with a communication radius only
+     * agents near that cell receive it.
+     */
+    public void receiveMessage(Message m, int x, int y) {
+        messageBus.post(m, x, y);
     }
     
     /**
-     * @return the grid
+     * @return the grid. Read only: write through setCell and clearCell so
+     * the free cell index and the cell types stay up to date.
      */
-    public ObjectGrid2D getObjectGrid() {
+    public TWChunkedGrid getObjectGrid() {
         return objectGrid;
     }
+
+    /**
+     * Puts an entity on the object grid.
+     */
+    public void setCell(int x, int y, TWEntity e) {
+        objectGrid.set(x, y, e);
+        cellTypes[x * yDimension + y] = TWCellType.of(e);
+        changeLog.record(x * yDimension + y);
+        if (e == null) {
+            freeCells.free(x, y);
+        } else {
+            freeCells.occupy(x, y);
+        }
+    }
+
+    /**
+     * Removes whatever is on the object grid at x,y.
+     */
+    public void clearCell(int x, int y) {
+        setCell(x, y, null);
+    }
     
-    public ObjectGrid2D getAgentGrid() {
+    /**
+     * @return the TWCellType code of what the object grid holds at x,y
+     */
+    public byte getCellType(int x, int y) {
+        return cellTypes[x * yDimension + y];
+    }
+
+    /**
+     * @return the live TWCellType array of the object grid, index
+     * x * yDimension + y. Read only.
+     */
+    public byte[] getCellTypes() {
+        return cellTypes;
+    }
+
+    /**
+     * @return the log of object grid cells written lately, see TWChangeLog
+     */
+    public TWChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    public TWConfig getConfig() {
+        return config;
+    }
+
+    public TWChunkedGrid getAgentGrid() {
         return agentGrid;
     }
     
@@ -224,7 +347,7 @@ public class TWEnvironment extends SimState implements Steppable {
     }
 
     public boolean isCellOccupied(int x, int y){
-            return (objectGrid.get(x, y) != null);
+            return getCellType(x, y) != TWCellType.EMPTY;
     }
 
     /**
@@ -235,8 +358,7 @@ public class TWEnvironment extends SimState implements Steppable {
      */
     public boolean isCellBlocked(int x, int y) {
         if(this.isValidLocation(x, y)){
-        TWEntity e = (TWEntity) objectGrid.get(x, y);
-        return (e != null && (e instanceof TWObstacle));
+        return getCellType(x, y) == TWCellType.OBSTACLE;
         }else{
             return true;
         }
@@ -246,10 +368,7 @@ public class TWEnvironment extends SimState implements Steppable {
     public boolean canPickupTile(TWTile tile, TWAgent agent) {
     	if(!agent.sameLocation(tile))
     		return false;
-    	TWEntity e = (TWEntity) objectGrid.get(tile.x, tile.y);
-    	if(e == null||!(e instanceof TWTile))
-    		return false;
-    	return true;
+    	return getCellType(tile.x, tile.y) == TWCellType.TILE;
     }
     
     public boolean canPutdownTile(TWHole hole, TWAgent agent) {
@@ -257,14 +376,11 @@ public class TWEnvironment extends SimState implements Steppable {
     		return false;
     	if(!agent.sameLocation(hole))
     		return false;
-    	TWEntity e = (TWEntity) objectGrid.get(hole.x, hole.y);
-    	if(e == null||!(e instanceof TWHole))
-    		return false;
-    	return true;
+    	return getCellType(hole.x, hole.y) == TWCellType.HOLE;
     }
     
     public boolean doesCellContainObject(int x, int y) {
-        return !(objectGrid.get(x, y) == null);
+        return getCellType(x, y) != TWCellType.EMPTY;
     }
 
     /**
@@ -291,34 +407,30 @@ public class TWEnvironment extends SimState implements Steppable {
 
     /**
      * picks a random location from the environment, used for free walk algorithm.
-     * Bit stupid now, will be very slow when the environment fills up.
-     * @param gx - this will be resulting x coordinate
-     * @param gy
+     * Drawn uniformly from the index of free cells, so it costs the same
+     * however full the environment is.
+     * @return a cell holding no object
+     * @throws IllegalStateException if every cell is taken
      */
     public Int2D generateRandomLocation() {
-        int gx = 1, gy = 1;
-        while (!isValidCreationLocation(
-                gx = this.random.nextInt(this.xDimension),
-                gy = this.random.nextInt(this.yDimension))) {
+        Int2D pos = freeCells.sample(this.random);
+        if (pos == null) {
+            throw new IllegalStateException("No free cell left in the environment");
         }
-
-        return new Int2D(gx, gy);
+        return pos;
     }
 
     /**
-     *  Generates a random free location at least minDistance away from x, y
+     *  Generates a random free location at least minDistance (manhattan) away
+     *  from x, y
      *
      * @param x
      * @param y
      * @param minDistance
+     * @return the location, null if no free cell is that far away
      */
     public Int2D generateFarRandomLocation(int x, int y, int minDistance) {
-        int gx = 1, gy = 1;
-        while (!isValidCreationLocation(gx = this.random.nextInt(this.xDimension),
-                gy = this.random.nextInt(this.yDimension)) && this.getDistance(x, y, gx, gy) < minDistance) {
-        }
-
-        return new Int2D(gx, gy);
+        return freeCells.sampleFar(x, y, minDistance, this.random);
     }
 
     /**
@@ -363,6 +475,21 @@ public class TWEnvironment extends SimState implements Steppable {
 
     }
 
+    /**
+     * @param type agent class name, MyAgent or SimpleTWAgent
+     * @throws IllegalArgumentException for any other type
+     */
+    private TWAgent newAgent(String type, String name, int x, int y) {
+        switch (type) {
+            case "MyAgent":
+                return new MyAgent(name, x, y, this, config.getFuelLevel());
+            case "SimpleTWAgent":
+                return new SimpleTWAgent(name, x, y, this, config.getFuelLevel());
+            default:
+                throw new IllegalArgumentException("Unknown agent type: " + type);
+        }
+    }
+
     /**
      * Creates and schedues a TWAgent. Also adds the agent to the portrayal if
      * a portrayal exists.
@@ -374,13 +501,24 @@ public class TWEnvironment extends SimState implements Steppable {
      */
     private void createAgent(TWAgent a) {
         agents.add(a);  // 将agent添加到列表中
-        schedule.scheduleRepeating(new Steppable(){public void step(SimState state) {a.sense(); a.communicate();}}, 2, 1.0);
+        if (config.getSensingThreads() == 0) {
+            //otherwise the TWSensingPass senses for everyone
+            schedule.scheduleRepeating(new Steppable(){public void step(SimState state) {a.sense(); a.communicate();}}, 2, 1.0);
+        }
         schedule.scheduleRepeating(a, 3, 1.0);
         if(TWGUI.instance !=null){
             TWGUI.instance.addMemoryPortrayal(a);
         }
     }
 
+    @Override
+    public void finish() {
+        super.finish();
+        if (sensingPass != null) {
+            sensingPass.cleanup();
+        }
+    }
+
     public int getReward(){
     	return reward;
     }
@@ -0,0 +1,111 @@
+package tileworld.environment;
+
+import sim.util.Bag;
+
+/**
+ * TWExpiryQueue
+ *
+ * Description:
+ *
+ * Timing wheel holding the live TWObjects by the step in which they die. The
+ * wheel has one bucket per step of the horizon (the object lifetime, grown if
+ * an object ever lives longer), so adding an object and finding the ones that
+ * die this step are O(1) per object: each step only the buckets whose time has
+ * come are emptied, however many objects are alive.
+ *
+ * The queue does not know whether an object is still on the grid; the
+ * environment checks that when the object comes out.
+ *
+ * Anything else can be queued by the step it is due in too (add(Object,
+ * double)); the agents' memories use it to forget percepts.
+ */
+public class TWExpiryQueue {
+
+    private Bag[] buckets;
+    /** first step whose bucket has not been emptied yet */
+    private long nextTick;
+    private int size;
+
+    /**
+     * @param horizon number of steps ahead an object can die in, the wheel
+     * grows if this turns out to be too small
+     */
+    public TWExpiryQueue(int horizon) {
+        buckets = new Bag[Math.max(1, horizon)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bag();
+        }
+    }
+
+    public void add(TWObject o) {
+        add(o, o.getDeathTime());
+    }
+
+    /**
+     * Queues o to come out of expire once timeNow reaches time.
+     */
+    public void add(Object o, double time) {
+        long tick = (long) Math.ceil(time);
+        if (tick < nextTick) {
+            //already due, goes out with the next expire call
+            tick = nextTick;
+        }
+        if (tick - nextTick >= buckets.length) {
+            grow(tick - nextTick + 1);
+        }
+        buckets[(int) (tick % buckets.length)].add(o);
+        size++;
+    }
+
+    public void addAll(Bag objects) {
+        for (int i = 0; i < objects.size(); i++) {
+            add((TWObject) objects.get(i));
+        }
+    }
+
+    /**
+     * Moves every object due at or before timeNow into out.
+     *
+     * @param timeNow current simulation time
+     * @param out bag the expired objects are added to
+     */
+    public void expire(double timeNow, Bag out) {
+        long last = (long) Math.floor(timeNow);
+        for (; nextTick <= last && size > 0; nextTick++) {
+            Bag bucket = buckets[(int) (nextTick % buckets.length)];
+            if (!bucket.isEmpty()) {
+                size -= bucket.size();
+                out.addAll(bucket);
+                bucket.clear();
+            }
+        }
+        if (nextTick <= last) {
+            //nothing left in the wheel, skip straight ahead
+            nextTick = last + 1;
+        }
+    }
+
+    /**
+     * @return number of objects waiting to die
+     */
+    public int size() {
+        return size;
+    }
+
+    private void grow(long span) {
+        int length = buckets.length;
+        while (length < span) {
+            length *= 2;
+        }
+        Bag[] grown = new Bag[length];
+        for (int i = 0; i < length; i++) {
+            grown[i] = new Bag();
+        }
+        //every pending bucket holds a single tick, it lies within one turn of nextTick
+        for (int k = 0; k < buckets.length; k++) {
+            long tick = nextTick + k;
+            grown[(int) (tick % length)].addAll(buckets[(int) (tick % buckets.length)]);
+        }
+        buckets = grown;
+    }
+}
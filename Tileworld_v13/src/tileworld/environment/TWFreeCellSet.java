@@ -0,0 +1,182 @@
+package tileworld.environment;
+
+import ec.util.MersenneTwisterFast;
+import sim.util.Int2D;
+
+/**
+ * TWFreeCellSet
+ *
+ * Description:
+ *
+ * The cells of the object grid that hold no object, kept as a dense array of
+ * cell indices plus the position of every cell in that array. Occupying or
+ * freeing a cell swaps it with the last entry, so every update is O(1) and a
+ * uniformly random free cell is a single array read, however full the grid
+ * is.
+ *
+ * For "free and at least d away from x,y" the grid is also cut into square
+ * blocks that count their free cells. Rejection sampling is tried first;
+ * if the far region is too small for that to work, the block counts are used
+ * to draw directly (and still uniformly) among the far free cells.
+ */
+public class TWFreeCellSet {
+
+    private static final int BLOCK = 8;
+    private static final int REJECTION_TRIES = 8;
+
+    private final int width, height;
+    /** free cells, the first size entries are live */
+    private final int[] cells;
+    /** slot of each cell in cells, -1 if it is occupied */
+    private final int[] position;
+    private int size;
+
+    private final int blocksX, blocksY;
+    private final int[] blockFree;
+
+    /**
+     * Creates the set with every cell free.
+     */
+    public TWFreeCellSet(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.cells = new int[width * height];
+        this.position = new int[width * height];
+        this.blocksX = (width + BLOCK - 1) / BLOCK;
+        this.blocksY = (height + BLOCK - 1) / BLOCK;
+        this.blockFree = new int[blocksX * blocksY];
+        for (int c = 0; c < cells.length; c++) {
+            cells[c] = c;
+            position[c] = c;
+            blockFree[block(c)]++;
+        }
+        size = cells.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFree(int x, int y) {
+        return position[x * height + y] >= 0;
+    }
+
+    /**
+     * Marks x,y as holding an object. Does nothing if it already was.
+     */
+    public void occupy(int x, int y) {
+        int c = x * height + y;
+        int slot = position[c];
+        if (slot < 0) {
+            return;
+        }
+        int last = cells[--size];
+        cells[slot] = last;
+        position[last] = slot;
+        position[c] = -1;
+        blockFree[block(c)]--;
+    }
+
+    /**
+     * Marks x,y as empty. Does nothing if it already was.
+     */
+    public void free(int x, int y) {
+        int c = x * height + y;
+        if (position[c] >= 0) {
+            return;
+        }
+        cells[size] = c;
+        position[c] = size++;
+        blockFree[block(c)]++;
+    }
+
+    /**
+     * @return a uniformly chosen free cell, null if there is none
+     */
+    public Int2D sample(MersenneTwisterFast random) {
+        if (size == 0) {
+            return null;
+        }
+        int c = cells[random.nextInt(size)];
+        return new Int2D(c / height, c % height);
+    }
+
+    /**
+     * @return a uniformly chosen free cell at manhattan distance at least
+     * minDistance from x,y, null if there is none
+     */
+    public Int2D sampleFar(int x, int y, int minDistance, MersenneTwisterFast random) {
+        if (size == 0) {
+            return null;
+        }
+        for (int i = 0; i < REJECTION_TRIES; i++) {
+            int c = cells[random.nextInt(size)];
+            if (distance(c, x, y) >= minDistance) {
+                return new Int2D(c / height, c % height);
+            }
+        }
+
+        //count the far free cells: whole blocks from their counters, blocks
+        //cut by the distance limit cell by cell
+        int total = 0;
+        for (int b = 0; b < blockFree.length; b++) {
+            total += farFreeInBlock(b, x, y, minDistance);
+        }
+        if (total == 0) {
+            return null;
+        }
+        int k = random.nextInt(total);
+        for (int b = 0; b < blockFree.length; b++) {
+            int n = farFreeInBlock(b, x, y, minDistance);
+            if (k >= n) {
+                k -= n;
+                continue;
+            }
+            int x0 = (b / blocksY) * BLOCK, y0 = (b % blocksY) * BLOCK;
+            for (int cx = x0; cx < Math.min(width, x0 + BLOCK); cx++) {
+                for (int cy = y0; cy < Math.min(height, y0 + BLOCK); cy++) {
+                    int c = cx * height + cy;
+                    if (position[c] >= 0 && distance(c, x, y) >= minDistance && k-- == 0) {
+                        return new Int2D(cx, cy);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private int farFreeInBlock(int b, int x, int y, int minDistance) {
+        if (blockFree[b] == 0) {
+            return 0;
+        }
+        int x0 = (b / blocksY) * BLOCK, y0 = (b % blocksY) * BLOCK;
+        int x1 = Math.min(width, x0 + BLOCK) - 1, y1 = Math.min(height, y0 + BLOCK) - 1;
+        //nearest and farthest point of the block from x,y
+        int near = Math.max(0, Math.max(x0 - x, x - x1)) + Math.max(0, Math.max(y0 - y, y - y1));
+        int far = Math.max(Math.abs(x - x0), Math.abs(x - x1)) + Math.max(Math.abs(y - y0), Math.abs(y - y1));
+        if (near >= minDistance) {
+            return blockFree[b];
+        }
+        if (far < minDistance) {
+            return 0;
+        }
+        int n = 0;
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                int c = cx * height + cy;
+                if (position[c] >= 0 && distance(c, x, y) >= minDistance) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private int block(int c) {
+        return (c / height / BLOCK) * blocksY + (c % height / BLOCK);
+    }
+
+    private int distance(int c, int x, int y) {
+        return Math.abs(c / height - x) + Math.abs(c % height - y);
+    }
+}
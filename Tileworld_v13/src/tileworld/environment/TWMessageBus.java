@@ -0,0 +1,322 @@
+package tileworld.environment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import sim.util.Bag;
+import tileworld.agent.CompactMessage;
+import tileworld.agent.EntityMessage;
+import tileworld.agent.Message;
+
+/**
+ * TWMessageBus
+ *
+ * Description:
+ *
+ * The environment's communication channel for one time step. Messages go
+ * into an append-only log and each reader (one per agent) keeps cursors into
+ * it, so reading the new messages costs only their number and nobody needs
+ * to remember which messages it has already seen.
+ *
+ * A message is either a broadcast, heard by every reader, or located at a
+ * cell. With a communication radius r (TWConfig commRadius) a located message
+ * is only heard by readers within r cells of it (Chebyshev distance, like the
+ * sensor). Located messages are filed in square buckets of the grid, and a
+ * reader only looks at the buckets overlapping the square of radius r around
+ * itself, so delivery cost follows the traffic nearby rather than the traffic
+ * of the whole world. A reader hears a located message if it is in range at
+ * the first receive after the message was posted. With no radius (0) every
+ * message is a broadcast.
+ *
+ * Every EntityMessage naming an entity is also entered in a hash set keyed
+ * by (cell, TWCellType of the entity), so an agent can ask in constant time
+ * whether something has already been announced this step instead of scanning
+ * the log.
+ *
+ * The bus also owns the arena of CompactMessages for the step: obtain hands
+ * out the next one, and they are all taken back at once by clear.
+ *
+ * clear empties the log, the buckets, the set, the arena and every cursor
+ * together; the environment calls it once per step.
+ */
+public class TWMessageBus {
+
+    private static final long EMPTY = -1;
+    /** smallest bucket side, so small radii do not make tiny buckets */
+    private static final int MIN_BUCKET = 8;
+
+    private final int height;
+    private final int radius;
+
+    private final ArrayList<Message> log = new ArrayList<Message>();
+    /** cell of each located log entry, -1 for broadcasts */
+    private int[] cells = new int[64];
+    /** log positions of the broadcasts */
+    private int[] broadcasts = new int[16];
+    private int broadcastCount;
+
+    /** bucket side in cells, and buckets along x and y */
+    private final int bucketSide, bucketsWide, bucketsHigh;
+    /** log positions filed in each bucket, ascending */
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+    /** buckets holding something, so clear only touches those */
+    private int[] usedBuckets = new int[16];
+    private int usedBucketCount;
+
+    /** per reader: next broadcast and first log position not yet looked at */
+    private int[] broadcastCursors = new int[4];
+    private int[] logCursors = new int[4];
+    private String[] readerNames = new String[4];
+    private int readers;
+
+    /** compact messages of this step are arena[0 .. arenaUsed - 1] */
+    private final ArrayList<CompactMessage> arena = new ArrayList<CompactMessage>();
+    private int arenaUsed;
+
+    /** open addressing set of (cell << 3 | type), EMPTY marks a free slot */
+    private long[] keys = new long[64];
+    /** slots in use, so clear only touches those */
+    private int[] used = new int[32];
+    private int size;
+
+    /**
+     * @param radius communication radius in cells, 0 for no limit
+     */
+    public TWMessageBus(int width, int height, int radius) {
+        this.height = height;
+        this.radius = radius;
+        this.bucketSide = Math.max(MIN_BUCKET, radius);
+        this.bucketsHigh = (height + bucketSide - 1) / bucketSide;
+        this.bucketsWide = (width + bucketSide - 1) / bucketSide;
+        this.buckets = new int[radius > 0 ? bucketsWide * bucketsHigh : 0][];
+        this.bucketSizes = new int[buckets.length];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * @param name the reader's agent name, given back by getReaderName
+     * @return a new reader, its cursors start at the beginning of the log
+     */
+    public int newReader(String name) {
+        if (readers == logCursors.length) {
+            logCursors = Arrays.copyOf(logCursors, readers * 2);
+            broadcastCursors = Arrays.copyOf(broadcastCursors, readers * 2);
+            readerNames = Arrays.copyOf(readerNames, readers * 2);
+        }
+        logCursors[readers] = 0;
+        broadcastCursors[readers] = 0;
+        readerNames[readers] = name;
+        return readers++;
+    }
+
+    public String getReaderName(int reader) {
+        return readerNames[reader];
+    }
+
+    public int getReaderCount() {
+        return readers;
+    }
+
+    /**
+     * @return a compact message from this step's arena, to be filled in with
+     * set and posted. It is reused after the next clear.
+     */
+    public CompactMessage obtain() {
+        if (arenaUsed == arena.size()) {
+            arena.add(new CompactMessage(this));
+        }
+        return arena.get(arenaUsed++);
+    }
+
+    /**
+     * Posts m to every reader.
+     */
+    public void post(Message m) {
+        append(m, -1);
+        if (broadcastCount == broadcasts.length) {
+            broadcasts = Arrays.copyOf(broadcasts, broadcastCount * 2);
+        }
+        broadcasts[broadcastCount++] = log.size() - 1;
+    }
+
+    /**
+     * Posts m at x,y: only readers within the communication radius of x,y
+     * hear it. Without a radius this is the same as post(m).
+     */
+    public void post(Message m, int x, int y) {
+        if (radius <= 0) {
+            post(m);
+            return;
+        }
+        append(m, x * height + y);
+        int b = bucket(x, y);
+        int[] bucket = buckets[b];
+        if (bucket == null) {
+            bucket = buckets[b] = new int[8];
+        } else if (bucketSizes[b] == bucket.length) {
+            bucket = buckets[b] = Arrays.copyOf(bucket, bucket.length * 2);
+        }
+        if (bucketSizes[b] == 0) {
+            if (usedBucketCount == usedBuckets.length) {
+                usedBuckets = Arrays.copyOf(usedBuckets, usedBucketCount * 2);
+            }
+            usedBuckets[usedBucketCount++] = b;
+        }
+        bucket[bucketSizes[b]++] = log.size() - 1;
+    }
+
+    /**
+     * Gives reader every message posted since its last receive that it can
+     * hear at x,y: all new broadcasts, then the new located messages in
+     * range, each bucket in posting order.
+     *
+     * @param out cleared and filled
+     * @return out
+     */
+    public Bag receive(int reader, int x, int y, Bag out) {
+        out.clear();
+        for (int i = broadcastCursors[reader]; i < broadcastCount; i++) {
+            out.add(log.get(broadcasts[i]));
+        }
+        broadcastCursors[reader] = broadcastCount;
+
+        int from = logCursors[reader];
+        int to = log.size();
+        logCursors[reader] = to;
+        if (radius <= 0 || from == to) {
+            return out;
+        }
+        int bx0 = Math.max(0, x - radius) / bucketSide;
+        int bx1 = Math.min(bucketsWide - 1, (x + radius) / bucketSide);
+        int by0 = Math.max(0, y - radius) / bucketSide;
+        int by1 = Math.min(bucketsHigh - 1, (y + radius) / bucketSide);
+        for (int bx = bx0; bx <= bx1; bx++) {
+            for (int by = by0; by <= by1; by++) {
+                int b = bx * bucketsHigh + by;
+                int[] bucket = buckets[b];
+                int n = bucketSizes[b];
+                //the new entries are at the end of the bucket
+                int first = n;
+                while (first > 0 && bucket[first - 1] >= from) {
+                    first--;
+                }
+                for (int i = first; i < n; i++) {
+                    int c = cells[bucket[i]];
+                    if (Math.abs(c / height - x) <= radius && Math.abs(c % height - y) <= radius) {
+                        out.add(log.get(bucket[i]));
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @param type TWCellType of the entity
+     * @return true if a message this step already named an entity of that
+     * type at x,y
+     */
+    public boolean isAnnounced(int x, int y, byte type) {
+        long key = key(x, y, type);
+        for (int s = slot(key); ; s = (s + 1) & (keys.length - 1)) {
+            if (keys[s] == key) {
+                return true;
+            } else if (keys[s] == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return every message posted this step, oldest first. Read only.
+     */
+    public ArrayList<Message> getMessages() {
+        return log;
+    }
+
+    public int size() {
+        return log.size();
+    }
+
+    /**
+     * Drops every message, announcement and cursor position.
+     */
+    public void clear() {
+        log.clear();
+        arenaUsed = 0;
+        broadcastCount = 0;
+        for (int i = 0; i < usedBucketCount; i++) {
+            bucketSizes[usedBuckets[i]] = 0;
+        }
+        usedBucketCount = 0;
+        Arrays.fill(logCursors, 0, readers, 0);
+        Arrays.fill(broadcastCursors, 0, readers, 0);
+        for (int i = 0; i < size; i++) {
+            keys[used[i]] = EMPTY;
+        }
+        size = 0;
+    }
+
+    private void append(Message m, int cell) {
+        if (log.size() == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+        }
+        cells[log.size()] = cell;
+        log.add(m);
+        if (m instanceof CompactMessage) {
+            CompactMessage c = (CompactMessage) m;
+            add(key(c.getX(), c.getY(), c.getEntityType()));
+        } else if (m instanceof EntityMessage) {
+            TWEntity e = ((EntityMessage) m).getDiscoveredEntity();
+            if (e != null) {
+                add(key(e.getX(), e.getY(), TWCellType.of(e)));
+            }
+        }
+    }
+
+    private int bucket(int x, int y) {
+        return (x / bucketSide) * bucketsHigh + y / bucketSide;
+    }
+
+    private long key(int x, int y, byte type) {
+        return ((long) (x * height + y) << 3) | type;
+    }
+
+    private void add(long key) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int s = slot(key);
+        while (keys[s] != EMPTY) {
+            if (keys[s] == key) {
+                return;
+            }
+            s = (s + 1) & (keys.length - 1);
+        }
+        keys[s] = key;
+        if (size == used.length) {
+            used = Arrays.copyOf(used, size * 2);
+        }
+        used[size++] = s;
+    }
+
+    private void grow() {
+        long[] old = keys;
+        int n = size;
+        keys = new long[old.length * 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < n; i++) {
+            add(old[used[i]]);
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (keys.length - 1);
+    }
+}
@@ -4,7 +4,6 @@
 package tileworld.environment;
 
 import sim.util.Int2D;
-import tileworld.Parameters;
 
 /**
  * TWObject
@@ -20,8 +19,6 @@ import tileworld.Parameters;
  */
 public class TWObject extends TWEntity{
 
-	protected static final int lifeTime = Parameters.lifeTime;
-
 	private double creationTime;
 	private double dTime;
 
@@ -54,10 +51,27 @@ public class TWObject extends TWEntity{
 		this(pos.x,pos.y,env,creationTime,deathTime);
 	}
 
+	/**
+	 * @return the step the object was made, or last reissued from a pool, in
+	 */
+	public double getCreationTime() {
+		return creationTime;
+	}
+
 	public double getTimeLeft(double timeNow){
 		return dTime - timeNow;
 	}
 
+	/**
+	 * Gives a pooled object a new life, as the full constructor would.
+	 */
+	void reset(int x, int y, TWEnvironment env, double creationTime, double deathTime) {
+		this.setEnvironment(env);
+		this.creationTime = creationTime;
+		this.dTime = deathTime;
+		this.setLocation(x, y);
+	}
+
 	public TWObject(){
 	}
 
@@ -4,12 +4,9 @@
 package tileworld.environment;
 
 import ec.util.MersenneTwisterFast;
-import java.lang.reflect.InvocationTargetException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.function.Supplier;
 import sim.util.Bag;
 import sim.util.Int2D;
-import tileworld.Parameters;
 
 /**
  * TWObjectCreator
@@ -21,28 +18,32 @@ import tileworld.Parameters;
  * Description:
  *
  * A class to create all types of TWObjects, the generic type T is the type of
- * TWObject.
+ * TWObject. Instances come from a TWObjectPool of that type, so dead objects
+ * given back through release() are reused.
  */
-public class TWObjectCreator<T> {
+public class TWObjectCreator<T extends TWObject> {
 
     double mean;
     double dev;
     MersenneTwisterFast random;
     TWEnvironment env;
-    private T instance;
-    Class[] classes = {Int2D.class, TWEnvironment.class, Double.class, Double.class};
+    private final TWObjectPool<T> pool;
+    /** reused by every call to createTWObjects */
+    private final Bag items = new Bag();
 
     /**
      * @param mean
      * @param dev
-     * @param tileCreationDistribution
+     * @param random
+     * @param factory builds a blank instance of T, e.g. TWTile::new
+     * @param env
      */
     public TWObjectCreator(double mean, double dev,
-            Bag context, MersenneTwisterFast random, T inst, TWEnvironment env) {
+            MersenneTwisterFast random, Supplier<T> factory, TWEnvironment env) {
         super();
         this.mean = mean;
         this.dev = dev;
-        instance = inst;
+        this.pool = new TWObjectPool<T>(factory, env.getConfig().getLifeTime());
 
         this.env = env;
         // create object creation distributions (assumed normal for now)
@@ -50,72 +51,54 @@ public class TWObjectCreator<T> {
 
     }
 
-    public Bag createTWObjects(double time) throws IllegalAccessException, InstantiationException {
+    /**
+     * @return the objects created this time step, the bag is reused (and
+     * cleared) on the next call
+     */
+    public Bag createTWObjects(double time) {
 
         //translate the random variable between [0,1] to specified mean and std deviation
         double numberObjects = mean + dev * this.random.nextGaussian();
 
-        Bag items = new Bag();
+        items.clear();
         for (int i = 0; i < Math.floor(numberObjects); i++) {
-            T o = null;
-            try {
-                o = create((Class<T>) instance.getClass(), time);
-            } catch (InstantiationException e) {
-                e.printStackTrace();
-                throw e;
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-                throw e;
-            }
-            items.add((TWObject) o);
+            items.add(create(time));
         }
 
         if (numberObjects - Math.floor(numberObjects) > this.random.nextDouble()) {
-            try {
-                items.add((TWObject) create((Class<T>) instance.getClass(), time));
-            } catch (InstantiationException e) {
-                e.printStackTrace();
-                throw e;
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-                throw e;
-            }
+            items.add(create(time));
         }
 
+        return items;
+    }
 
+    /**
+     * Gives a dead object back so a later create() can reuse it.
+     *
+     * @param o object which has expired or been consumed
+     * @param time timestamp of its death
+     */
+    public void release(T o, double time) {
+        pool.release(o, time);
+    }
 
-        return items;
+    public TWObjectPool<T> getPool() {
+        return pool;
     }
 
     /**
-     * Creates an instance of the appropriate type (according to T) and then
-     * sets the relevant parameters such as deathtime and location
+     * Takes an instance of T from the pool and sets the relevant parameters
+     * such as deathtime and location
      *
-     * @param clazz class of type to create
      * @param time timestamp of creation
      * @return the created object
-     *
-     * @throws InstantiationException
-     * @throws IllegalAccessException
      */
-    private T create(Class<T> clazz, double time) throws InstantiationException, IllegalAccessException {
+    private T create(double time) {
 
         Int2D pos = env.generateRandomLocation();
 
-        T o = null;
-        try {
-            o = clazz.getDeclaredConstructor(classes).newInstance(pos, env, time, (time + Parameters.lifeTime));
-        } catch (IllegalArgumentException ex) {
-            Logger.getLogger(TWObjectCreator.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (InvocationTargetException ex) {
-            Logger.getLogger(TWObjectCreator.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (NoSuchMethodException ex) {
-            Logger.getLogger(TWObjectCreator.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (SecurityException ex) {
-            Logger.getLogger(TWObjectCreator.class.getName()).log(Level.SEVERE, null, ex);
-        }
-
-        assert (o instanceof TWObject);
+        T o = pool.obtain(time);
+        o.reset(pos.x, pos.y, env, time, time + env.getConfig().getLifeTime());
         return o;
     }
 }
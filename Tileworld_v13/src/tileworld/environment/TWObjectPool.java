@@ -0,0 +1,111 @@
+package tileworld.environment;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * TWObjectPool
+ *
+ * Description:
+ *
+ * Recycles the TWObjects of one type. New instances come from a plain
+ * constructor reference (TWTile::new and so on) instead of reflection, and
+ * objects that have died are handed out again, so after a warm-up period a
+ * long run stops allocating world objects altogether.
+ *
+ * Agents may still hold a dead object in memory, in a message or in their
+ * list of carried tiles. A released object therefore waits in the pool for a
+ * delay (one object lifetime by default) before it is reused, oldest first,
+ * by which time any memory of its old life has long expired.
+ */
+public class TWObjectPool<T extends TWObject> {
+
+    private final Supplier<T> factory;
+    private final double delay;
+
+    /** FIFO ring of released objects and the time each was released */
+    private Object[] items = new Object[64];
+    private double[] releasedAt = new double[64];
+    private int head, size;
+
+    private long created;
+    private long reused;
+
+    /**
+     * @param factory creates a blank instance when the pool has none to reuse
+     * @param delay time an object stays in the pool before it can be reused
+     */
+    public TWObjectPool(Supplier<T> factory, double delay) {
+        this.factory = factory;
+        this.delay = delay;
+    }
+
+    /**
+     * Returns a recycled object if one has waited long enough, a new one
+     * otherwise. Its location and lifetime still have to be set.
+     *
+     * @param time current simulation time
+     */
+    @SuppressWarnings("unchecked")
+    public T obtain(double time) {
+        if (size > 0 && time - releasedAt[head] >= delay) {
+            T o = (T) items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            size--;
+            reused++;
+            return o;
+        }
+        created++;
+        return factory.get();
+    }
+
+    /**
+     * Puts a dead object back into the pool.
+     *
+     * @param time current simulation time
+     */
+    public void release(T o, double time) {
+        if (size == items.length) {
+            grow();
+        }
+        int tail = (head + size) % items.length;
+        items[tail] = o;
+        releasedAt[tail] = time;
+        size++;
+    }
+
+    /**
+     * @return objects waiting to be reused
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return objects built by the factory so far
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return objects handed out again so far
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    private void grow() {
+        Object[] i = new Object[items.length * 2];
+        double[] r = new double[items.length * 2];
+        for (int k = 0; k < size; k++) {
+            i[k] = items[(head + k) % items.length];
+            r[k] = releasedAt[(head + k) % items.length];
+        }
+        Arrays.fill(items, null);
+        items = i;
+        releasedAt = r;
+        head = 0;
+    }
+}
@@ -0,0 +1,296 @@
+package tileworld.planners;
+
+import tileworld.agent.MyMemory;
+import tileworld.agent.TWAgent;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * AnytimeAstarPathGenerator
+ *
+ * Description:
+ *
+ * A* with a budget per call, so a single far or unreachable goal cannot make
+ * one agent step explore the whole known map and hold up the schedule. The
+ * budget is a number of node expansions and/or a number of nanoseconds
+ * (0 switches either limit off).
+ *
+ * When the budget runs out the search is suspended and the path to the best
+ * frontier node so far (the one closest to the goal, by Manhattan distance) is
+ * returned, so the agent can start moving. The next call for the same goal
+ * carries on with the same open list instead of starting again. The search
+ * tree stays rooted where it started; the returned path always starts at the
+ * agent's current cell, going up the tree to the common ancestor and then down
+ * to the target, so the agent may wander inside the tree between calls. Once
+ * the goal has been reached, later calls read their path straight from the
+ * tree.
+ *
+ * The search starts again when the goal changes, when the agent has left the
+ * tree, or when the memory records an obstacle on a cell the tree has already
+ * visited. Obstacles forgotten by memory do not restart it; the tree may then
+ * miss a shortcut until the next restart.
+ *
+ * Because the tree outlives the call it cannot live in the shared per-thread
+ * SearchWorkspace; each generator keeps its own.
+ */
+public class AnytimeAstarPathGenerator implements TWPathGenerator, MyMemory.ObstacleListener {
+
+    public static final int DEFAULT_MAX_EXPANSIONS = 4096;
+    /** how many expansions between two looks at the clock */
+    private static final int CLOCK_INTERVAL = 64;
+
+    private final TWEnvironment map;
+    private final TWAgent agent;
+    private SearchWorkspace ws;
+
+    private int maxExpansions;
+    private long maxNanos;
+
+    /** search state, kept between calls */
+    private boolean active;
+    private boolean complete;
+    private boolean dirty;
+    private int goal;
+    private int best;
+    private float bestH;
+
+    /** metrics */
+    private long searches;
+    private long budgetHits;
+    private long resumes;
+    private int lastExpansions;
+
+    public AnytimeAstarPathGenerator(TWEnvironment map, TWAgent agent) {
+        this(map, agent, DEFAULT_MAX_EXPANSIONS, 0);
+    }
+
+    /**
+     * @param maxExpansions node expansions allowed per call, 0 for no limit
+     * @param maxNanos time allowed per call in nanoseconds, 0 for no limit
+     */
+    public AnytimeAstarPathGenerator(TWEnvironment map, TWAgent agent, int maxExpansions, long maxNanos) {
+        this.map = map;
+        this.agent = agent;
+        this.maxExpansions = maxExpansions;
+        this.maxNanos = maxNanos;
+        if (agent.getMemory() instanceof MyMemory) {
+            ((MyMemory) agent.getMemory()).addObstacleListener(this);
+        }
+    }
+
+    public void setMaxExpansions(int maxExpansions) {
+        this.maxExpansions = maxExpansions;
+    }
+
+    public void setMaxNanos(long maxNanos) {
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return number of calls that ran a search (new or resumed)
+     */
+    public long getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return number of calls that ran out of budget and returned a partial path
+     */
+    public long getBudgetHits() {
+        return budgetHits;
+    }
+
+    /**
+     * @return number of calls that carried on with a suspended search
+     */
+    public long getResumes() {
+        return resumes;
+    }
+
+    /**
+     * @return node expansions made by the last call
+     */
+    public int getLastExpansions() {
+        return lastExpansions;
+    }
+
+    /**
+     * @return true if the last search was suspended before reaching its goal
+     */
+    public boolean isSuspended() {
+        return active && !complete;
+    }
+
+    /**
+     * @see TWPathGenerator#findPath(int, int, int, int)
+     *
+     * @return a path to the goal, a partial path towards it if the budget ran
+     * out, or null if the goal cannot be reached (or no progress was made)
+     */
+    public TWPath findPath(int sx, int sy, int tx, int ty) {
+        lastExpansions = 0;
+        if (agent.getMemory().isCellBlocked(tx, ty) || (sx == tx && sy == ty)) {
+            active = false;
+            return null;
+        }
+        if (ws == null) {
+            ws = new SearchWorkspace(map.getxDimension(), map.getyDimension());
+        }
+        int start = ws.index(sx, sy);
+        int target = ws.index(tx, ty);
+
+        if (!active || dirty || target != goal || !inTree(start)) {
+            restart(start, target);
+        } else if (!complete) {
+            resumes++;
+        }
+
+        if (!complete) {
+            searches++;
+            if (!expand()) {
+                //open list ran dry, the goal cannot be reached
+                active = false;
+                return null;
+            }
+        }
+
+        int end = complete ? goal : best;
+        if (end == start) {
+            return null;
+        }
+        return buildPath(start, end);
+    }
+
+    /**
+     * @see MyMemory.ObstacleListener#obstacleRecorded(int, int)
+     */
+    public void obstacleRecorded(int x, int y) {
+        if (active && ws.isVisited(ws.index(x, y))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * @see MyMemory.ObstacleListener#obstacleRemoved(int, int)
+     */
+    public void obstacleRemoved(int x, int y) {
+    }
+
+    private boolean inTree(int cell) {
+        return ws.isOpen(cell) || ws.isClosed(cell);
+    }
+
+    private void restart(int start, int target) {
+        ws.reset();
+        goal = target;
+        active = true;
+        complete = false;
+        dirty = false;
+        ws.setCost(start, 0);
+        ws.setParent(start, -1);
+        ws.addToOpen(start, heuristic(start));
+        best = start;
+        bestH = heuristic(start);
+    }
+
+    /**
+     * Runs A* until the goal is taken from the open list, the list is empty or
+     * the budget is spent.
+     *
+     * @return false if the open list ran dry without reaching the goal
+     */
+    private boolean expand() {
+        long deadline = maxNanos > 0 ? System.nanoTime() + maxNanos : 0;
+        while (ws.openSize() != 0) {
+            int current = ws.firstOpen();
+            if (current == goal) {
+                complete = true;
+                return true;
+            }
+            if ((maxExpansions > 0 && lastExpansions >= maxExpansions)
+                    || (deadline != 0 && lastExpansions % CLOCK_INTERVAL == 0 && lastExpansions > 0
+                    && System.nanoTime() > deadline)) {
+                budgetHits++;
+                return true;
+            }
+            ws.removeFromOpen(current);
+            ws.close(current);
+            lastExpansions++;
+
+            int cx = ws.x(current);
+            int cy = ws.y(current);
+            relax(current, cx + 1, cy);
+            relax(current, cx - 1, cy);
+            relax(current, cx, cy + 1);
+            relax(current, cx, cy - 1);
+        }
+        return false;
+    }
+
+    private void relax(int current, int x, int y) {
+        if (!map.isInBounds(x, y)) {
+            return;
+        }
+        int next = ws.index(x, y);
+        if (ws.isClosed(next) || agent.getMemory().getCellTypes()[next] == TWCellType.OBSTACLE) {
+            return;
+        }
+        float g = ws.getCost(current) + 1;
+        if (g < ws.getCost(next)) {
+            ws.removeFromOpen(next);
+            ws.setCost(next, g);
+            ws.setParent(next, current);
+            float h = heuristic(next);
+            ws.addToOpen(next, g + h);
+            if (h < bestH || (h == bestH && g < ws.getCost(best))) {
+                best = next;
+                bestH = h;
+            }
+        }
+    }
+
+    /**
+     * Manhattan distance to the goal, consistent on the 4-connected grid, so
+     * closed cells never need reopening and the tree depths stay valid.
+     */
+    private float heuristic(int cell) {
+        return Math.abs(ws.x(cell) - ws.x(goal)) + Math.abs(ws.y(cell) - ws.y(goal));
+    }
+
+    /**
+     * Path from one tree cell to another: up from the start to the common
+     * ancestor, then down to the end. The end cell itself is not included.
+     */
+    private TWPath buildPath(int start, int end) {
+        int a = start, b = end;
+        int[] up = new int[ws.getDepth(a) + 1];
+        int[] down = new int[ws.getDepth(b) + 1];
+        int nu = 0, nd = 0;
+        while (ws.getDepth(a) > ws.getDepth(b)) {
+            up[nu++] = a;
+            a = ws.getParent(a);
+        }
+        while (ws.getDepth(b) > ws.getDepth(a)) {
+            down[nd++] = b;
+            b = ws.getParent(b);
+        }
+        while (a != b) {
+            up[nu++] = a;
+            a = ws.getParent(a);
+            down[nd++] = b;
+            b = ws.getParent(b);
+        }
+        //a is the common ancestor; it is a step unless it is the end itself
+        TWPath path = new TWPath(ws.x(end), ws.y(end));
+        for (int i = 1; i < nd; i++) {
+            path.prependStep(ws.x(down[i]), ws.y(down[i]));
+        }
+        if (a != end) {
+            path.prependStep(ws.x(a), ws.y(a));
+        }
+        for (int i = nu - 1; i >= 0; i--) {
+            path.prependStep(ws.x(up[i]), ws.y(up[i]));
+        }
+        return path;
+    }
+}
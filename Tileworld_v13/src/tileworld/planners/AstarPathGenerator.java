@@ -4,8 +4,6 @@
  */
 package tileworld.planners;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import tileworld.agent.TWAgent;
 import tileworld.environment.TWEnvironment;
 
@@ -30,16 +28,16 @@ import tileworld.environment.TWEnvironment;
  */
 public class AstarPathGenerator implements TWPathGenerator {
 
-    /** The set of nodes that have been searched through */
-    private ArrayList closed = new ArrayList();
-    /** The set of nodes that we do not yet consider fully searched */
-    private SortedList open = new SortedList();
+    /**
+     * Per-search state (costs, parents, open heap, closed marks). Fetched from
+     * the calling thread at the start of each search, so all agents stepped by
+     * the same thread share one workspace instead of each owning a node grid.
+     */
+    private SearchWorkspace ws;
     /** The map being searched */
     private TWEnvironment map;
     /** The maximum depth of search we're willing to accept before giving up */
     private int maxSearchDistance;
-    /** The complete set of nodes across the map */
-    private Node[][] nodes;
     /** True if we allow diaganol movement */
     private boolean allowDiagMovement = false;
     /** Reference to this agent, for looking in memory */
@@ -73,14 +71,6 @@ public class AstarPathGenerator implements TWPathGenerator {
         this.agent = agent;
         this.map = map;
         this.maxSearchDistance = maxSearchDistance;
-
-        //create the nodes used to store information about plan and map
-        nodes = new Node[map.getxDimension()][map.getyDimension()];
-        for (int x = 0; x < map.getxDimension(); x++) {
-            for (int y = 0; y < map.getyDimension(); y++) {
-                nodes[x][y] = new Node(x, y);
-            }
-        }
     }
 
     /**
@@ -94,27 +84,30 @@ public class AstarPathGenerator implements TWPathGenerator {
 
         // initial state for A*. The closed group is empty. Only the starting
         // tile is in the open list and it's cost is zero, i.e. we're already there
-        nodes[sx][sy].cost = 0;
-        nodes[sx][sy].depth = 0;
-        closed.clear();
-        open.clear();
-        open.add(nodes[sx][sy]);
-
-        nodes[tx][ty].parent = null;
+        ws = SearchWorkspace.forThread(map.getxDimension(), map.getyDimension());
+        ws.reset();
+        int start = ws.index(sx, sy);
+        int goal = ws.index(tx, ty);
+        ws.setCost(start, 0);
+        ws.setParent(start, -1);
+        addToOpen(start, (float) getHeuristicCost(sx, sy, tx, ty));
 
         // while we haven't found the goal and haven't exceeded our max search depth
         int maxDepth = 0;
-        while ((maxDepth < maxSearchDistance) && (open.size() != 0)) {
+        while ((maxDepth < maxSearchDistance) && (ws.openSize() != 0)) {
             // pull out the first node in our open list, this is determined to
             // be the most likely to be the next step based on our heuristic
-            Node current = getFirstInOpen();
-            if (current == nodes[tx][ty]) {
+            int current = getFirstInOpen();
+            if (current == goal) {
                 break;
             }
 
             removeFromOpen(current);
             addToClosed(current);
 
+            int cx = ws.x(current);
+            int cy = ws.y(current);
+
             // search through all the neighbours of the current node evaluating
             // them as next steps
             for (int x = -1; x < 2; x++) {
@@ -133,8 +126,8 @@ public class AstarPathGenerator implements TWPathGenerator {
                     }
 
                     // determine the location of the neighbour and evaluate it
-                    int xp = x + current.x;
-                    int yp = y + current.y;
+                    int xp = x + cx;
+                    int yp = y + cy;
 
 
                     //Check that the cell is valid (in bounds) and that according
@@ -143,15 +136,14 @@ public class AstarPathGenerator implements TWPathGenerator {
                         // the cost to get to this node is cost the current plus the movement
                         // cost to reach this node. Note that the heursitic value is only used
                         // in the sorted open list
-                        double nextStepCost = current.cost + getMovementCost(current.x, current.y, xp, yp);
-                        Node neighbour = nodes[xp][yp];
-                        neighbour.setVisited(true);
+                        float nextStepCost = ws.getCost(current) + (float) getMovementCost(cx, cy, xp, yp);
+                        int neighbour = ws.index(xp, yp);
 
                         // if the new cost we've determined for this node is lower than
                         // it has been previously makes sure the node hasn't been discarded. We've
                         // determined that there might have been a better path to get to
                         // this node so it needs to be re-evaluated
-                        if (nextStepCost < neighbour.cost) {
+                        if (nextStepCost < ws.getCost(neighbour)) {
                             if (inOpenList(neighbour)) {
                                 removeFromOpen(neighbour);
                             }
@@ -164,10 +156,9 @@ public class AstarPathGenerator implements TWPathGenerator {
                         // reset it's cost to our current cost and add it as a next possible
                         // step (i.e. to the open list)
                         if (!inOpenList(neighbour) && !(inClosedList(neighbour))) {
-                            neighbour.cost = nextStepCost;
-                            neighbour.heuristic = getHeuristicCost(xp, yp, tx, ty);
-                            maxDepth = Math.max(maxDepth, neighbour.setParent(current));
-                            addToOpen(neighbour);
+                            ws.setCost(neighbour, nextStepCost);
+                            maxDepth = Math.max(maxDepth, ws.setParent(neighbour, current));
+                            addToOpen(neighbour, nextStepCost + (float) getHeuristicCost(xp, yp, tx, ty));
                         }
                     }
                 }
@@ -176,7 +167,7 @@ public class AstarPathGenerator implements TWPathGenerator {
 
         // since we've got an empty open list or we've run out of search
         // there was no path. Just return null
-        if (nodes[tx][ty].parent == null) {
+        if (!ws.isVisited(goal) || ws.getParent(goal) < 0) {
             return null;
         }
 
@@ -184,12 +175,11 @@ public class AstarPathGenerator implements TWPathGenerator {
         // references of the nodes to find out way from the target location back
         // to the start recording the nodes on the way.
         TWPath path = new TWPath(tx,ty);
-        Node target = nodes[tx][ty];
         //skip the goal as the step before will tell us how to get there.
-        target = target.parent;
-        while (target != nodes[sx][sy]) {
-            path.prependStep(target.x, target.y);
-            target = target.parent;
+        int target = ws.getParent(goal);
+        while (target != start) {
+            path.prependStep(ws.x(target), ws.y(target));
+            target = ws.getParent(target);
         }
 
         //in our type of plan we don't include current location.
@@ -205,17 +195,18 @@ public class AstarPathGenerator implements TWPathGenerator {
      *
      * @return The first element in the open list
      */
-    protected Node getFirstInOpen() {
-        return (Node) open.first();
+    protected int getFirstInOpen() {
+        return ws.firstOpen();
     }
 
     /**
      * Add a node to the open list
      *
      * @param node The node to be added to the open list
+     * @param f The cost plus heuristic of the node, its priority in the list
      */
-    protected void addToOpen(Node node) {
-        open.add(node);
+    protected void addToOpen(int node, float f) {
+        ws.addToOpen(node, f);
     }
 
     /**
@@ -224,8 +215,8 @@ public class AstarPathGenerator implements TWPathGenerator {
      * @param node The node to check for
      * @return True if the node given is in the open list
      */
-    protected boolean inOpenList(Node node) {
-        return open.contains(node);
+    protected boolean inOpenList(int node) {
+        return ws.isOpen(node);
     }
 
     /**
@@ -233,8 +224,8 @@ public class AstarPathGenerator implements TWPathGenerator {
      *
      * @param node The node to remove from the open list
      */
-    protected void removeFromOpen(Node node) {
-        open.remove(node);
+    protected void removeFromOpen(int node) {
+        ws.removeFromOpen(node);
     }
 
     /**
@@ -242,8 +233,8 @@ public class AstarPathGenerator implements TWPathGenerator {
      *
      * @param node The node to add to the closed list
      */
-    protected void addToClosed(Node node) {
-        closed.add(node);
+    protected void addToClosed(int node) {
+        ws.close(node);
     }
 
     /**
@@ -252,8 +243,8 @@ public class AstarPathGenerator implements TWPathGenerator {
      * @param node The node to search for
      * @return True if the node specified is in the closed list
      */
-    protected boolean inClosedList(Node node) {
-        return closed.contains(node);
+    protected boolean inClosedList(int node) {
+        return ws.isClosed(node);
     }
 
     /**
@@ -261,8 +252,8 @@ public class AstarPathGenerator implements TWPathGenerator {
      *
      * @param node The node to remove from the closed list
      */
-    protected void removeFromClosed(Node node) {
-        closed.remove(node);
+    protected void removeFromClosed(int node) {
+        ws.unclose(node);
     }
 
     /**
@@ -308,144 +299,4 @@ public class AstarPathGenerator implements TWPathGenerator {
     public double getHeuristicCost(int x, int y, int tx, int ty) {
         return this.getCost(x, y, tx, ty);
     }
-
-    /**
-     * A simple sorted list
-     *
-     * @author kevin
-     */
-    private class SortedList {
-
-        /** The list of elements */
-        private ArrayList list = new ArrayList();
-
-        /**
-         * Retrieve the first element from the list
-         *
-         * @return The first element from the list
-         */
-        public Object first() {
-            return list.get(0);
-        }
-
-        /**
-         * Empty the list
-         */
-        public void clear() {
-            list.clear();
-        }
-
-        /**
-         * Add an element to the list - causes sorting
-         *
-         * @param o The element to add
-         */
-        public void add(Object o) {
-            list.add(o);
-            Collections.sort(list);
-        }
-
-        /**
-         * Remove an element from the list
-         *
-         * @param o The element to remove
-         */
-        public void remove(Object o) {
-            list.remove(o);
-        }
-
-        /**
-         * Get the number of elements in the list
-         *
-         * @return The number of element in the list
-         */
-        public int size() {
-            return list.size();
-        }
-
-        /**
-         * Check if an element is in the list
-         *
-         * @param o The element to search for
-         * @return True if the element is in the list
-         */
-        public boolean contains(Object o) {
-            return list.contains(o);
-        }
-    }
-
-    /**
-     * A single node in the search graph
-     */
-    protected class Node implements Comparable {
-
-        /** The x coordinate of the node */
-        private int x;
-        /** The y coordinate of the node */
-        private int y;
-        /** The path cost for this node */
-        private double cost;
-        /** The parent of this node, how we reached it in the search */
-        private Node parent;
-        /** The heuristic cost of this node */
-        private double heuristic;
-        /** The search depth of this node */
-        private int depth;
-        /** 
-         * In the original code, visited was part of the map. However, 
-         * because some implementations may not use path finding (reactive) 
-         * I think it better to keep it here. Note, this is only used for debugging.
-         */
-        private boolean visited;
-
-        /**
-         * Create a new node
-         *
-         * @param x The x coordinate of the node
-         * @param y The y coordinate of the node
-         */
-        public Node(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
-
-        /**
-         * Set the parent of this node
-         *
-         * @param parent The parent node which lead us to this node
-         * @return The depth we have no reached in searching
-         */
-        public int setParent(Node parent) {
-            depth = parent.depth + 1;
-            this.parent = parent;
-
-            return depth;
-        }
-
-        /**
-         * @see Comparable#compareTo(Object)
-         */
-        public int compareTo(Object other) {
-            Node o = (Node) other;
-
-            double f = heuristic + cost;
-            double of = o.heuristic + o.cost;
-
-            if (f < of) {
-                return -1;
-            } else if (f > of) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-
-        public boolean pathFinderVisited() {
-            return visited;
-        }
-
-        public void setVisited(boolean b) {
-            visited = b;
-        }
-    }
 }
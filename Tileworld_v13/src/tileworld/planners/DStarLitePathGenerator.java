@@ -0,0 +1,386 @@
+package tileworld.planners;
+
+import java.util.Arrays;
+import tileworld.agent.MyMemory;
+import tileworld.agent.TWAgent;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * DStarLitePathGenerator
+ *
+ * Description:
+ *
+ * Incremental path generator based on D* Lite (Koenig and Likhachev 2002).
+ * The search runs backwards from the goal and the resulting tree is kept
+ * between calls. When the agent has moved, or cells changed their
+ * isCellBlocked answer, only the part of the tree affected by the change is
+ * repaired instead of searching again from nothing. Asking for a different
+ * goal starts a new tree.
+ *
+ * Cell changes are reported through MyMemory.ObstacleListener (obstacles
+ * recorded and forgotten). Every returned path is also checked against the
+ * agent's memory before it is handed out, and any cell found blocked is
+ * repaired the same way. With a memory that does not report changes, paths
+ * are therefore still valid, but may miss shortcuts opened by obstacles that
+ * have gone. So a goal that looks unreachable is searched for once more
+ * from scratch before null is returned.
+ *
+ * Unlike the A* workspace, the tree belongs to this agent and is kept between
+ * calls, so it is allocated here (lazily, on first use).
+ */
+public class DStarLitePathGenerator implements TWPathGenerator, MyMemory.ObstacleListener {
+
+    private static final float INF = Float.POSITIVE_INFINITY;
+
+    private final TWEnvironment map;
+    private final TWAgent agent;
+    private final int width;
+    private final int height;
+
+    /** cost-to-goal estimate and one step lookahead, as in the paper */
+    private float[] g;
+    private float[] rhs;
+    /** two part priority of the cells in the open heap */
+    private float[] k1;
+    private float[] k2;
+    /** slot in the heap, -1 if not queued */
+    private int[] heapIndex;
+    private int[] heap;
+    private int size;
+
+    /** key modifier, grows with the distance the start has moved */
+    private float km;
+    private int goal = -1;
+    private int lastStart = -1;
+
+    /** cells whose blocked state changed since the last call */
+    private int[] changed = new int[16];
+    private int changedCount;
+
+    public DStarLitePathGenerator(TWEnvironment map, TWAgent agent) {
+        this.map = map;
+        this.agent = agent;
+        this.width = map.getxDimension();
+        this.height = map.getyDimension();
+        if (agent.getMemory() instanceof MyMemory) {
+            ((MyMemory) agent.getMemory()).addObstacleListener(this);
+        }
+    }
+
+    /**
+     * @see TWPathGenerator#findPath(int, int, int, int)
+     */
+    public TWPath findPath(int sx, int sy, int tx, int ty) {
+        if (isBlocked(tx, ty) || (sx == tx && sy == ty)) {
+            return null;
+        }
+        int start = index(sx, sy);
+        int target = index(tx, ty);
+        boolean rebuilt = target != goal || g == null;
+        if (rebuilt) {
+            initialise(start, target);
+        } else {
+            km += heuristic(lastStart, start);
+            lastStart = start;
+            repairChangedCells();
+        }
+        changedCount = 0;
+
+        for (int attempt = 0; attempt < 3; attempt++) {
+            computeShortestPath(start);
+            if (rhs[start] == INF) {
+                if (rebuilt) {
+                    return null;
+                }
+                //a cell freed without us being told may be the only way, so
+                //look again from scratch before giving up on the goal
+                initialise(start, target);
+                rebuilt = true;
+                continue;
+            }
+            TWPath path = extractPath(start, tx, ty);
+            if (path != null) {
+                return path;
+            }
+            if (changedCount > 0) {
+                //the path ran into a cell nobody told us about, repair it
+                repairChangedCells();
+                changedCount = 0;
+            } else {
+                //tree no longer leads anywhere sensible, start it again
+                initialise(start, target);
+                rebuilt = true;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see MyMemory.ObstacleListener#obstacleRecorded(int, int)
+     */
+    public void obstacleRecorded(int x, int y) {
+        cellChanged(index(x, y));
+    }
+
+    /**
+     * @see MyMemory.ObstacleListener#obstacleRemoved(int, int)
+     */
+    public void obstacleRemoved(int x, int y) {
+        cellChanged(index(x, y));
+    }
+
+    private void cellChanged(int cell) {
+        if (goal < 0) {
+            return;
+        }
+        if (changedCount == changed.length) {
+            changed = Arrays.copyOf(changed, changedCount * 2);
+        }
+        changed[changedCount++] = cell;
+    }
+
+    private void initialise(int start, int target) {
+        if (g == null) {
+            int n = width * height;
+            g = new float[n];
+            rhs = new float[n];
+            k1 = new float[n];
+            k2 = new float[n];
+            heapIndex = new int[n];
+            heap = new int[n];
+        }
+        Arrays.fill(g, INF);
+        Arrays.fill(rhs, INF);
+        Arrays.fill(heapIndex, -1);
+        size = 0;
+        km = 0;
+        goal = target;
+        lastStart = start;
+        rhs[goal] = 0;
+        push(goal, heuristic(start, goal), 0);
+    }
+
+    /**
+     * A cell changed: every edge touching it changed, so recompute the
+     * lookahead of the cell and of its neighbours.
+     */
+    private void repairChangedCells() {
+        for (int i = 0; i < changedCount; i++) {
+            int c = changed[i];
+            int cx = c / height, cy = c % height;
+            recomputeRhs(c);
+            if (cx > 0) recomputeRhs(c - height);
+            if (cx < width - 1) recomputeRhs(c + height);
+            if (cy > 0) recomputeRhs(c - 1);
+            if (cy < height - 1) recomputeRhs(c + 1);
+        }
+    }
+
+    private void recomputeRhs(int u) {
+        if (u != goal) {
+            rhs[u] = bestSuccessor(u);
+        }
+        updateVertex(u);
+    }
+
+    /**
+     * @return min over neighbours s of c(u,s) + g(s)
+     */
+    private float bestSuccessor(int u) {
+        if (isBlocked(u)) {
+            return INF;
+        }
+        int ux = u / height, uy = u % height;
+        float best = INF;
+        if (ux > 0) best = Math.min(best, step(u, u - height));
+        if (ux < width - 1) best = Math.min(best, step(u, u + height));
+        if (uy > 0) best = Math.min(best, step(u, u - 1));
+        if (uy < height - 1) best = Math.min(best, step(u, u + 1));
+        return best;
+    }
+
+    private float step(int u, int s) {
+        return isBlocked(s) ? INF : 1 + g[s];
+    }
+
+    private void updateVertex(int u) {
+        boolean queued = heapIndex[u] >= 0;
+        if (g[u] != rhs[u]) {
+            float m = Math.min(g[u], rhs[u]);
+            float key1 = m + heuristic(lastStart, u) + km;
+            if (queued) {
+                update(u, key1, m);
+            } else {
+                push(u, key1, m);
+            }
+        } else if (queued) {
+            remove(u);
+        }
+    }
+
+    private void computeShortestPath(int start) {
+        while (size > 0) {
+            int u = heap[0];
+            float m = Math.min(g[start], rhs[start]);
+            float startK1 = m + km;
+            if (!lessKey(k1[u], k2[u], startK1, m) && rhs[start] <= g[start]) {
+                break;
+            }
+            float oldK1 = k1[u], oldK2 = k2[u];
+            float mu = Math.min(g[u], rhs[u]);
+            float newK1 = mu + heuristic(lastStart, u) + km;
+            if (lessKey(oldK1, oldK2, newK1, mu)) {
+                update(u, newK1, mu);
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                remove(u);
+                relaxNeighbours(u);
+            } else {
+                g[u] = INF;
+                recomputeRhs(u);
+                relaxNeighbours(u);
+            }
+        }
+    }
+
+    private void relaxNeighbours(int u) {
+        int ux = u / height, uy = u % height;
+        if (ux > 0) recomputeRhs(u - height);
+        if (ux < width - 1) recomputeRhs(u + height);
+        if (uy > 0) recomputeRhs(u - 1);
+        if (uy < height - 1) recomputeRhs(u + 1);
+    }
+
+    /**
+     * Follows the cheapest neighbour from the start to the goal.
+     *
+     * @return the path, or null if it crosses a cell which is blocked in
+     * memory but which the tree still thinks is free (the cell is then queued
+     * for repair)
+     */
+    private TWPath extractPath(int start, int tx, int ty) {
+        int[] cells = new int[(int) rhs[start] + 1];
+        int n = 0;
+        int u = start;
+        while (u != goal) {
+            if (n == cells.length) {
+                return null;
+            }
+            cells[n++] = u;
+            int ux = u / height, uy = u % height;
+            int next = -1;
+            float best = INF;
+            if (ux > 0 && 1 + g[u - height] < best) { best = 1 + g[u - height]; next = u - height; }
+            if (ux < width - 1 && 1 + g[u + height] < best) { best = 1 + g[u + height]; next = u + height; }
+            if (uy > 0 && 1 + g[u - 1] < best) { best = 1 + g[u - 1]; next = u - 1; }
+            if (uy < height - 1 && 1 + g[u + 1] < best) { best = 1 + g[u + 1]; next = u + 1; }
+            if (next < 0) {
+                return null;
+            }
+            if (isBlocked(next)) {
+                changedCount = 0;
+                cellChanged(next);
+                return null;
+            }
+            u = next;
+        }
+
+        TWPath path = new TWPath(tx, ty);
+        for (int i = n - 1; i >= 0; i--) {
+            path.prependStep(cells[i] / height, cells[i] % height);
+        }
+        return path;
+    }
+
+    private float heuristic(int a, int b) {
+        return Math.abs(a / height - b / height) + Math.abs(a % height - b % height);
+    }
+
+    private boolean isBlocked(int c) {
+        return agent.getMemory().getCellTypes()[c] == TWCellType.OBSTACLE;
+    }
+
+    private boolean isBlocked(int x, int y) {
+        return !map.isInBounds(x, y) || agent.getMemory().isCellBlocked(x, y);
+    }
+
+    private int index(int x, int y) {
+        return x * height + y;
+    }
+
+    //---------------------------------------------------------------------
+    // indexed binary heap ordered on (k1, k2)
+
+    private static boolean lessKey(float a1, float a2, float b1, float b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+
+    private boolean less(int a, int b) {
+        return lessKey(k1[a], k2[a], k1[b], k2[b]);
+    }
+
+    private void push(int u, float key1, float key2) {
+        k1[u] = key1;
+        k2[u] = key2;
+        heap[size] = u;
+        heapIndex[u] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    private void update(int u, float key1, float key2) {
+        k1[u] = key1;
+        k2[u] = key2;
+        siftUp(heapIndex[u]);
+        siftDown(heapIndex[u]);
+    }
+
+    private void remove(int u) {
+        int slot = heapIndex[u];
+        size--;
+        int last = heap[size];
+        heapIndex[u] = -1;
+        if (slot != size) {
+            heap[slot] = last;
+            heapIndex[last] = slot;
+            siftDown(slot);
+            siftUp(heapIndex[last]);
+        }
+    }
+
+    private void siftUp(int slot) {
+        int u = heap[slot];
+        while (slot > 0) {
+            int p = (slot - 1) >> 1;
+            if (!less(u, heap[p])) {
+                break;
+            }
+            heap[slot] = heap[p];
+            heapIndex[heap[slot]] = slot;
+            slot = p;
+        }
+        heap[slot] = u;
+        heapIndex[u] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int u = heap[slot];
+        int half = size >> 1;
+        while (slot < half) {
+            int child = (slot << 1) + 1;
+            int right = child + 1;
+            if (right < size && less(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!less(heap[child], u)) {
+                break;
+            }
+            heap[slot] = heap[child];
+            heapIndex[heap[slot]] = slot;
+            slot = child;
+        }
+        heap[slot] = u;
+        heapIndex[u] = slot;
+    }
+}
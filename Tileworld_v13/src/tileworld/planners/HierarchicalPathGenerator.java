@@ -0,0 +1,545 @@
+package tileworld.planners;
+
+import java.util.Arrays;
+import tileworld.agent.MyMemory;
+import tileworld.agent.TWAgent;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * HierarchicalPathGenerator
+ *
+ * Description:
+ *
+ * HPA* (Botea, Mueller and Schaeffer 2004) for large maps. The grid is split
+ * into square clusters. Along every border between two clusters the maximal
+ * runs of cells that are free on both sides are entrances, each marked by one
+ * transition (two for long runs). The transition cells are the nodes of an
+ * abstract graph; inside a cluster they are joined by their exact
+ * cluster-local distances, across a border by a single step.
+ *
+ * A query links start and goal into the graph with a search bounded to their
+ * own clusters, runs A* on the (small) abstract graph and then refines the
+ * abstract path one cluster at a time, each segment searched inside its
+ * cluster only. The work is proportional to the clusters along the path
+ * rather than to the map. Paths are near-optimal, not always shortest.
+ *
+ * Obstacles come from the agent's memory. When the memory reports a change
+ * (MyMemory.ObstacleListener) only the cluster containing the cell is
+ * rebuilt, together with the border it sits on if it is an edge cell.
+ */
+public class HierarchicalPathGenerator implements TWPathGenerator, MyMemory.ObstacleListener {
+
+    public static final int DEFAULT_CLUSTER_SIZE = 10;
+    /** Entrances at least this long get a transition at each end */
+    private static final int LONG_ENTRANCE = 6;
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+    /** the four neighbours of a cell, as dx, dy */
+    private static final int[][] MOVES = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+
+    private final TWEnvironment map;
+    private final TWAgent agent;
+    private final int width, height;
+    private final int size;
+    /** number of clusters along x and y */
+    private final int cw, ch;
+
+    /** abstract nodes of each cluster (sorted cell indices) */
+    private int[][] nodes;
+    /** distances between the nodes of each cluster */
+    private int[][][] dist;
+    /** transitions (cell on the left, cell on the right) between cluster i and its east neighbour */
+    private int[][] eastBorder;
+    /** transitions (cell above, cell below) between cluster i and its south neighbour */
+    private int[][] southBorder;
+
+    private boolean built = false;
+    private final boolean[] dirtyCluster;
+    private final boolean[] dirtyEast;
+    private final boolean[] dirtySouth;
+    private boolean anyDirty;
+
+    /** scratch space for searches bounded to one cluster */
+    private final int[] localDist;
+    private final int[] localQueue;
+    /** distances from the start (and to the goal) for the nodes of their clusters */
+    private int[] startLinks, goalLinks;
+    /** cells of the refined path */
+    private int[] pathCells = new int[64];
+    private int pathLength;
+
+    public HierarchicalPathGenerator(TWEnvironment map, TWAgent agent) {
+        this(map, agent, DEFAULT_CLUSTER_SIZE);
+    }
+
+    public HierarchicalPathGenerator(TWEnvironment map, TWAgent agent, int clusterSize) {
+        this.map = map;
+        this.agent = agent;
+        this.width = map.getxDimension();
+        this.height = map.getyDimension();
+        this.size = clusterSize;
+        this.cw = (width + size - 1) / size;
+        this.ch = (height + size - 1) / size;
+        this.dirtyCluster = new boolean[cw * ch];
+        this.dirtyEast = new boolean[cw * ch];
+        this.dirtySouth = new boolean[cw * ch];
+        this.localDist = new int[size * size];
+        this.localQueue = new int[size * size];
+        if (agent.getMemory() instanceof MyMemory) {
+            ((MyMemory) agent.getMemory()).addObstacleListener(this);
+        }
+    }
+
+    /**
+     * @see TWPathGenerator#findPath(int, int, int, int)
+     */
+    public TWPath findPath(int sx, int sy, int tx, int ty) {
+        if (isBlocked(tx, ty) || (sx == tx && sy == ty)) {
+            return null;
+        }
+        if (!built) {
+            buildAll();
+        } else if (anyDirty) {
+            rebuildDirty();
+        }
+
+        TWPath path = search(sx, sy, tx, ty);
+        if (path == null && anyDirty) {
+            //refinement found a change memory did not report, try again once
+            rebuildDirty();
+            path = search(sx, sy, tx, ty);
+        }
+        return path;
+    }
+
+    /**
+     * @see MyMemory.ObstacleListener#obstacleRecorded(int, int)
+     */
+    public void obstacleRecorded(int x, int y) {
+        cellChanged(x, y);
+    }
+
+    /**
+     * @see MyMemory.ObstacleListener#obstacleRemoved(int, int)
+     */
+    public void obstacleRemoved(int x, int y) {
+        cellChanged(x, y);
+    }
+
+    /**
+     * Marks the cluster of x,y for rebuilding, plus the border and the
+     * neighbouring cluster if the cell lies on a cluster edge.
+     */
+    private void cellChanged(int x, int y) {
+        if (!built) {
+            return;
+        }
+        int cx = x / size, cy = y / size;
+        int c = cluster(cx, cy);
+        dirtyCluster[c] = true;
+        if (x % size == size - 1 && cx + 1 < cw) {
+            dirtyEast[c] = true;
+            dirtyCluster[cluster(cx + 1, cy)] = true;
+        }
+        if (x % size == 0 && cx > 0) {
+            dirtyEast[cluster(cx - 1, cy)] = true;
+            dirtyCluster[cluster(cx - 1, cy)] = true;
+        }
+        if (y % size == size - 1 && cy + 1 < ch) {
+            dirtySouth[c] = true;
+            dirtyCluster[cluster(cx, cy + 1)] = true;
+        }
+        if (y % size == 0 && cy > 0) {
+            dirtySouth[cluster(cx, cy - 1)] = true;
+            dirtyCluster[cluster(cx, cy - 1)] = true;
+        }
+        anyDirty = true;
+    }
+
+    //---------------------------------------------------------------------
+    // abstract graph construction
+
+    private void buildAll() {
+        int n = cw * ch;
+        nodes = new int[n][];
+        dist = new int[n][][];
+        eastBorder = new int[n][];
+        southBorder = new int[n][];
+        for (int c = 0; c < n; c++) {
+            buildBorders(c);
+        }
+        for (int c = 0; c < n; c++) {
+            buildCluster(c);
+        }
+        Arrays.fill(dirtyCluster, false);
+        Arrays.fill(dirtyEast, false);
+        Arrays.fill(dirtySouth, false);
+        anyDirty = false;
+        built = true;
+    }
+
+    private void rebuildDirty() {
+        int n = cw * ch;
+        for (int c = 0; c < n; c++) {
+            if (dirtyEast[c] || dirtySouth[c]) {
+                buildBorders(c);
+                dirtyEast[c] = false;
+                dirtySouth[c] = false;
+            }
+        }
+        for (int c = 0; c < n; c++) {
+            if (dirtyCluster[c]) {
+                buildCluster(c);
+                dirtyCluster[c] = false;
+            }
+        }
+        anyDirty = false;
+    }
+
+    /**
+     * Finds the entrances on the east and south borders of cluster c.
+     */
+    private void buildBorders(int c) {
+        int cx = c % cw, cy = c / cw;
+        eastBorder[c] = null;
+        southBorder[c] = null;
+        if (cx + 1 < cw) {
+            int x = (cx + 1) * size - 1;
+            eastBorder[c] = entrances(x, cy * size, Math.min(height, (cy + 1) * size), true);
+        }
+        if (cy + 1 < ch) {
+            int y = (cy + 1) * size - 1;
+            southBorder[c] = entrances(y, cx * size, Math.min(width, (cx + 1) * size), false);
+        }
+    }
+
+    /**
+     * Scans one border for runs of cells free on both sides.
+     *
+     * @param line x of the western column (east border) or y of the northern
+     * row (south border)
+     * @return transitions as consecutive (near cell, far cell) pairs
+     */
+    private int[] entrances(int line, int from, int to, boolean east) {
+        int[] pairs = new int[0];
+        int runStart = -1;
+        for (int i = from; i <= to; i++) {
+            boolean open = i < to && (east
+                    ? !isBlocked(line, i) && !isBlocked(line + 1, i)
+                    : !isBlocked(i, line) && !isBlocked(i, line + 1));
+            if (open && runStart < 0) {
+                runStart = i;
+            } else if (!open && runStart >= 0) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    pairs = addTransition(pairs, line, runStart, east);
+                    pairs = addTransition(pairs, line, runEnd, east);
+                } else {
+                    pairs = addTransition(pairs, line, (runStart + runEnd) / 2, east);
+                }
+                runStart = -1;
+            }
+        }
+        return pairs;
+    }
+
+    private int[] addTransition(int[] pairs, int line, int i, boolean east) {
+        int[] grown = Arrays.copyOf(pairs, pairs.length + 2);
+        if (east) {
+            grown[pairs.length] = index(line, i);
+            grown[pairs.length + 1] = index(line + 1, i);
+        } else {
+            grown[pairs.length] = index(i, line);
+            grown[pairs.length + 1] = index(i, line + 1);
+        }
+        return grown;
+    }
+
+    /**
+     * Collects the transition cells that lie in cluster c and computes the
+     * cluster-local distances between them.
+     */
+    private void buildCluster(int c) {
+        int cx = c % cw, cy = c / cw;
+        int[] cells = new int[0];
+        cells = collect(cells, eastBorder[c], 0);
+        cells = collect(cells, southBorder[c], 0);
+        if (cx > 0) {
+            cells = collect(cells, eastBorder[cluster(cx - 1, cy)], 1);
+        }
+        if (cy > 0) {
+            cells = collect(cells, southBorder[cluster(cx, cy - 1)], 1);
+        }
+        Arrays.sort(cells);
+        int n = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (i == 0 || cells[i] != cells[i - 1]) {
+                cells[n++] = cells[i];
+            }
+        }
+        cells = Arrays.copyOf(cells, n);
+
+        int[][] d = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            clusterSearch(cells[i], c);
+            for (int j = 0; j < n; j++) {
+                d[i][j] = localDistance(cells[j], c);
+            }
+        }
+        nodes[c] = cells;
+        dist[c] = d;
+    }
+
+    private int[] collect(int[] cells, int[] pairs, int side) {
+        if (pairs == null || pairs.length == 0) {
+            return cells;
+        }
+        int[] grown = Arrays.copyOf(cells, cells.length + pairs.length / 2);
+        for (int i = 0, j = cells.length; i < pairs.length; i += 2, j++) {
+            grown[j] = pairs[i + side];
+        }
+        return grown;
+    }
+
+    //---------------------------------------------------------------------
+    // queries
+
+    private TWPath search(int sx, int sy, int tx, int ty) {
+        int start = index(sx, sy);
+        int goal = index(tx, ty);
+        int cs = clusterOf(start);
+        int cg = clusterOf(goal);
+
+        clusterSearch(start, cs);
+        startLinks = links(cs, startLinks);
+        int direct = (cs == cg) ? localDistance(goal, cs) : UNREACHABLE;
+        clusterSearch(goal, cg);
+        goalLinks = links(cg, goalLinks);
+
+        SearchWorkspace ws = SearchWorkspace.forThread(width, height);
+        ws.reset();
+        ws.setCost(start, 0);
+        ws.setParent(start, -1);
+        ws.addToOpen(start, heuristic(start, goal));
+
+        while (ws.openSize() != 0) {
+            int u = ws.firstOpen();
+            if (u == goal) {
+                break;
+            }
+            ws.removeFromOpen(u);
+            ws.close(u);
+            float gu = ws.getCost(u);
+            int cu = clusterOf(u);
+
+            if (u == start) {
+                for (int i = 0; i < nodes[cs].length; i++) {
+                    relax(ws, u, nodes[cs][i], gu, startLinks[i], goal);
+                }
+                relax(ws, u, goal, gu, direct, goal);
+            }
+            int k = Arrays.binarySearch(nodes[cu], u);
+            if (k >= 0) {
+                int[] row = dist[cu][k];
+                for (int j = 0; j < row.length; j++) {
+                    relax(ws, u, nodes[cu][j], gu, row[j], goal);
+                }
+                relaxTransitions(ws, u, cu, gu, goal);
+                if (cu == cg) {
+                    relax(ws, u, goal, gu, goalLinks[k], goal);
+                }
+            }
+        }
+
+        if (!ws.isVisited(goal) || ws.getParent(goal) < 0) {
+            return null;
+        }
+        return refine(ws, start, goal, tx, ty);
+    }
+
+    /**
+     * Cluster-local distances from the last clusterSearch origin to the nodes
+     * of cluster c.
+     */
+    private int[] links(int c, int[] buffer) {
+        int n = nodes[c].length;
+        if (buffer == null || buffer.length < n) {
+            buffer = new int[Math.max(n, 8)];
+        }
+        for (int i = 0; i < n; i++) {
+            buffer[i] = localDistance(nodes[c][i], c);
+        }
+        return buffer;
+    }
+
+    private void relaxTransitions(SearchWorkspace ws, int u, int cu, float gu, int goal) {
+        int cx = cu % cw, cy = cu / cw;
+        relaxAcross(ws, u, eastBorder[cu], 0, gu, goal);
+        relaxAcross(ws, u, southBorder[cu], 0, gu, goal);
+        if (cx > 0) {
+            relaxAcross(ws, u, eastBorder[cluster(cx - 1, cy)], 1, gu, goal);
+        }
+        if (cy > 0) {
+            relaxAcross(ws, u, southBorder[cluster(cx, cy - 1)], 1, gu, goal);
+        }
+    }
+
+    private void relaxAcross(SearchWorkspace ws, int u, int[] pairs, int side, float gu, int goal) {
+        if (pairs == null) {
+            return;
+        }
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i + side] == u) {
+                relax(ws, u, pairs[i + 1 - side], gu, 1, goal);
+            }
+        }
+    }
+
+    private void relax(SearchWorkspace ws, int u, int v, float gu, int cost, int goal) {
+        if (cost == UNREACHABLE || v == u || ws.isClosed(v)) {
+            return;
+        }
+        float gv = gu + cost;
+        if (gv < ws.getCost(v)) {
+            ws.removeFromOpen(v);
+            ws.setCost(v, gv);
+            ws.setParent(v, u);
+            ws.addToOpen(v, gv + heuristic(v, goal));
+        }
+    }
+
+    /**
+     * Turns the abstract path into single steps, one segment (one cluster or
+     * one border crossing) at a time.
+     */
+    private TWPath refine(SearchWorkspace ws, int start, int goal, int tx, int ty) {
+        //abstract nodes from goal back to start
+        int[] chain = new int[16];
+        int n = 0;
+        for (int v = goal; v >= 0; v = ws.getParent(v)) {
+            if (n == chain.length) {
+                chain = Arrays.copyOf(chain, n * 2);
+            }
+            chain[n++] = v;
+        }
+
+        pathLength = 0;
+        for (int i = n - 1; i > 0; i--) {
+            int a = chain[i], b = chain[i - 1];
+            int ca = clusterOf(a);
+            if (ca != clusterOf(b)) {
+                //border crossing
+                appendCell(a);
+                continue;
+            }
+            //search from b so we can walk downhill from a towards it
+            clusterSearch(b, ca);
+            if (localDistance(a, ca) == UNREACHABLE) {
+                //abstract graph is stale for this cluster
+                cellChanged(a / height, a % height);
+                return null;
+            }
+            int cur = a;
+            while (cur != b) {
+                appendCell(cur);
+                cur = downhill(cur, ca);
+            }
+        }
+
+        TWPath path = new TWPath(tx, ty);
+        for (int i = pathLength - 1; i >= 0; i--) {
+            path.prependStep(pathCells[i] / height, pathCells[i] % height);
+        }
+        return path;
+    }
+
+    private void appendCell(int cell) {
+        if (pathLength == pathCells.length) {
+            pathCells = Arrays.copyOf(pathCells, pathLength * 2);
+        }
+        pathCells[pathLength++] = cell;
+    }
+
+    /**
+     * @return the neighbour of cell inside cluster c one step closer to the
+     * last clusterSearch origin
+     */
+    private int downhill(int cell, int c) {
+        int d = localDistance(cell, c);
+        int x = cell / height, y = cell % height;
+        for (int[] m : MOVES) {
+            int nx = x + m[0], ny = y + m[1];
+            if (inCluster(nx, ny, c) && localDistance(index(nx, ny), c) == d - 1) {
+                return index(nx, ny);
+            }
+        }
+        return cell;
+    }
+
+    //---------------------------------------------------------------------
+    // searches bounded to one cluster
+
+    /**
+     * Breadth first search from a cell, never leaving cluster c. Results are
+     * read with localDistance.
+     */
+    private void clusterSearch(int from, int c) {
+        Arrays.fill(localDist, -1);
+        int head = 0, tail = 0;
+        int ox = (c % cw) * size, oy = (c / cw) * size;
+        int fx = from / height, fy = from % height;
+        localDist[(fx - ox) * size + (fy - oy)] = 0;
+        localQueue[tail++] = (fx - ox) * size + (fy - oy);
+        while (head < tail) {
+            int l = localQueue[head++];
+            int lx = l / size, ly = l % size;
+            int d = localDist[l];
+            for (int k = 0; k < 4; k++) {
+                int nx = lx + (k == 0 ? 1 : k == 1 ? -1 : 0);
+                int ny = ly + (k == 2 ? 1 : k == 3 ? -1 : 0);
+                if (nx < 0 || ny < 0 || nx >= size || ny >= size) {
+                    continue;
+                }
+                int gx = ox + nx, gy = oy + ny;
+                int nl = nx * size + ny;
+                if (gx >= width || gy >= height || localDist[nl] >= 0 || isBlocked(gx, gy)) {
+                    continue;
+                }
+                localDist[nl] = d + 1;
+                localQueue[tail++] = nl;
+            }
+        }
+    }
+
+    private int localDistance(int cell, int c) {
+        int ox = (c % cw) * size, oy = (c / cw) * size;
+        int d = localDist[(cell / height - ox) * size + (cell % height - oy)];
+        return d < 0 ? UNREACHABLE : d;
+    }
+
+    private boolean inCluster(int x, int y, int c) {
+        int ox = (c % cw) * size, oy = (c / cw) * size;
+        return x >= ox && y >= oy && x < ox + size && y < oy + size && x < width && y < height;
+    }
+
+    //---------------------------------------------------------------------
+
+    private int cluster(int cx, int cy) {
+        return cy * cw + cx;
+    }
+
+    private int clusterOf(int cell) {
+        return cluster(cell / height / size, cell % height / size);
+    }
+
+    private int index(int x, int y) {
+        return x * height + y;
+    }
+
+    private float heuristic(int a, int b) {
+        return Math.abs(a / height - b / height) + Math.abs(a % height - b % height);
+    }
+
+    private boolean isBlocked(int x, int y) {
+        return !map.isInBounds(x, y) || agent.getMemory().isCellBlocked(x, y);
+    }
+}
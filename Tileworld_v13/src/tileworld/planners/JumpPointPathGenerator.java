@@ -0,0 +1,203 @@
+package tileworld.planners;
+
+import tileworld.agent.TWAgent;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * JumpPointPathGenerator
+ *
+ * Description:
+ *
+ * Jump Point Search for the 4-connected Tileworld grid (no diagonal moves,
+ * same movement model as TWDirection and AstarPathGenerator). Tileworld maps
+ * are mostly open, so plain A* spends most of its expansions on the many
+ * symmetric shortest paths between two cells. JPS only puts "jump points" in
+ * the open list: cells where a straight run has to turn because an obstacle
+ * has just ended beside it, or the goal itself. The cells between two jump
+ * points are walked without touching the open list.
+ *
+ * Horizontal runs stop at a cell whose row above or below opens up after
+ * being blocked. Vertical runs stop at the same kind of cell, and also at any
+ * cell from which a horizontal run reaches a jump point. Both searches are
+ * optimal with unit step costs, so the returned path has the same length as
+ * the one AstarPathGenerator finds. It may pick a different path of that
+ * length.
+ *
+ * Obstacles are taken from the agent's memory (isCellBlocked), the same
+ * oracle A* uses. Per-search state lives in the thread's SearchWorkspace.
+ */
+public class JumpPointPathGenerator implements TWPathGenerator {
+
+    /** The map being searched */
+    private final TWEnvironment map;
+    /** Reference to this agent, for looking in memory */
+    private final TWAgent agent;
+    /** Per-search state, fetched from the calling thread for each search */
+    private SearchWorkspace ws;
+    /** Goal of the current search */
+    private int tx, ty;
+
+    public JumpPointPathGenerator(TWEnvironment map, TWAgent agent) {
+        this.map = map;
+        this.agent = agent;
+    }
+
+    /**
+     * @see TWPathGenerator#findPath(int, int, int, int)
+     */
+    public TWPath findPath(int sx, int sy, int tx, int ty) {
+        if (!isWalkable(tx, ty) || (sx == tx && sy == ty)) {
+            return null;
+        }
+        this.tx = tx;
+        this.ty = ty;
+
+        ws = SearchWorkspace.forThread(map.getxDimension(), map.getyDimension());
+        ws.reset();
+        int start = ws.index(sx, sy);
+        int goal = ws.index(tx, ty);
+        ws.setCost(start, 0);
+        ws.setParent(start, -1);
+        ws.addToOpen(start, heuristic(sx, sy));
+
+        while (ws.openSize() != 0) {
+            int current = ws.firstOpen();
+            if (current == goal) {
+                break;
+            }
+            ws.removeFromOpen(current);
+            ws.close(current);
+            int cx = ws.x(current);
+            int cy = ws.y(current);
+
+            int parent = ws.getParent(current);
+            if (parent < 0) {
+                //the start cell: every walkable neighbour is a candidate
+                jumpAndAdd(current, cx, cy, 1, 0);
+                jumpAndAdd(current, cx, cy, -1, 0);
+                jumpAndAdd(current, cx, cy, 0, 1);
+                jumpAndAdd(current, cx, cy, 0, -1);
+            } else {
+                int dx = Integer.signum(cx - ws.x(parent));
+                int dy = Integer.signum(cy - ws.y(parent));
+                if (dx != 0) {
+                    jumpAndAdd(current, cx, cy, 0, -1);
+                    jumpAndAdd(current, cx, cy, 0, 1);
+                    jumpAndAdd(current, cx, cy, dx, 0);
+                } else {
+                    jumpAndAdd(current, cx, cy, -1, 0);
+                    jumpAndAdd(current, cx, cy, 1, 0);
+                    jumpAndAdd(current, cx, cy, 0, dy);
+                }
+            }
+        }
+
+        if (!ws.isVisited(goal) || ws.getParent(goal) < 0) {
+            return null;
+        }
+        return buildPath(start, goal);
+    }
+
+    /**
+     * Jumps from (cx,cy) in direction (dx,dy) and relaxes the jump point found,
+     * if any.
+     */
+    private void jumpAndAdd(int current, int cx, int cy, int dx, int dy) {
+        int jump = (dx != 0) ? jumpHorizontal(cx + dx, cy, dx) : jumpVertical(cx, cy + dy, dy);
+        if (jump < 0 || ws.isClosed(jump)) {
+            return;
+        }
+        int jx = ws.x(jump);
+        int jy = ws.y(jump);
+        float cost = ws.getCost(current) + Math.abs(jx - cx) + Math.abs(jy - cy);
+        if (cost < ws.getCost(jump)) {
+            ws.removeFromOpen(jump);
+            ws.setCost(jump, cost);
+            ws.setParent(jump, current);
+            ws.addToOpen(jump, cost + heuristic(jx, jy));
+        }
+    }
+
+    /**
+     * Walks along a row starting at (x,y) until a jump point, the goal or a
+     * blocked cell.
+     *
+     * @return the jump point index, -1 if the run hit a wall
+     */
+    private int jumpHorizontal(int x, int y, int dx) {
+        while (isWalkable(x, y)) {
+            if (x == tx && y == ty) {
+                return ws.index(x, y);
+            }
+            if ((isWalkable(x, y - 1) && !isWalkable(x - dx, y - 1))
+                    || (isWalkable(x, y + 1) && !isWalkable(x - dx, y + 1))) {
+                return ws.index(x, y);
+            }
+            x += dx;
+        }
+        return -1;
+    }
+
+    /**
+     * Walks along a column starting at (x,y). Besides its own forced
+     * neighbours a vertical run stops wherever a horizontal run would find a
+     * jump point, as in 4-connected JPS the turn has to happen there.
+     *
+     * @return the jump point index, -1 if the run hit a wall
+     */
+    private int jumpVertical(int x, int y, int dy) {
+        while (isWalkable(x, y)) {
+            if (x == tx && y == ty) {
+                return ws.index(x, y);
+            }
+            if ((isWalkable(x - 1, y) && !isWalkable(x - 1, y - dy))
+                    || (isWalkable(x + 1, y) && !isWalkable(x + 1, y - dy))) {
+                return ws.index(x, y);
+            }
+            if (jumpHorizontal(x + 1, y, 1) >= 0 || jumpHorizontal(x - 1, y, -1) >= 0) {
+                return ws.index(x, y);
+            }
+            y += dy;
+        }
+        return -1;
+    }
+
+    /**
+     * Expands the chain of jump points back into single steps, in the same
+     * layout AstarPathGenerator produces: the start cell is the first step
+     * and the goal itself is not included.
+     */
+    private TWPath buildPath(int start, int goal) {
+        TWPath path = new TWPath(tx, ty);
+        int to = goal;
+        int x = tx, y = ty;
+        while (to != start) {
+            int from = ws.getParent(to);
+            int fx = ws.x(from), fy = ws.y(from);
+            int dx = Integer.signum(fx - x);
+            int dy = Integer.signum(fy - y);
+            //step back towards the previous jump point one cell at a time
+            while (x != fx || y != fy) {
+                x += dx;
+                y += dy;
+                path.prependStep(x, y);
+            }
+            to = from;
+        }
+        return path;
+    }
+
+    /**
+     * Manhattan distance to the goal, exact on an empty 4-connected grid.
+     */
+    private float heuristic(int x, int y) {
+        return Math.abs(tx - x) + Math.abs(ty - y);
+    }
+
+    /**
+     * In bounds and not blocked according to the agent's memory.
+     */
+    private boolean isWalkable(int x, int y) {
+        return map.isInBounds(x, y) && !agent.getMemory().isCellBlocked(x, y);
+    }
+}
@@ -6,6 +6,7 @@ package tileworld.planners;
 
 import sim.util.Int2D;
 import tileworld.agent.MyAgent;
+import tileworld.agent.MyMemory;
 import tileworld.agent.TWAction;
 import tileworld.agent.TWThought;
 import tileworld.agent.Message;
@@ -49,7 +50,16 @@ import java.util.List;
 public class MyPlanner implements TWPlanner {
     private final MyAgent me;
     private final TWEnvironment environment;
-    private final AstarPathGenerator pathGenerator;
+    private TWPathGenerator pathGenerator;
+    private PathGeneratorType pathGeneratorType;
+    private final PathCache pathCache;
+    /** Kept once created, it listens to memory and holds its search tree */
+    private DStarLitePathGenerator dStarLite;
+    /** Kept once created, it listens to memory and holds the cluster graph */
+    private HierarchicalPathGenerator hierarchical;
+    /** Kept once created, it listens to memory and holds its suspended search */
+    private AnytimeAstarPathGenerator anytime;
+    private final NearestObjectFinder nearestFinder;
     private TWPath currentPath;
     private Int2D currentGoal;
     private boolean isInitialMove = true;
@@ -66,6 +76,33 @@ public class MyPlanner implements TWPlanner {
         EXPLORE
     }
     
+    /**
+     * Path generators the planner can use. The first three return shortest
+     * paths on the 4-connected grid; JUMP_POINT expands far fewer nodes on open
+     * maps and DSTAR_LITE repairs its previous search when obstacles change.
+     * HIERARCHICAL plans over clusters and returns near-shortest paths at a
+     * cost that barely grows with the map, it is meant for large maps.
+     * ANYTIME_ASTAR caps the work per step and returns a partial path when
+     * the cap is hit, carrying on with the same search next step.
+     */
+    public enum PathGeneratorType {
+        ASTAR,
+        JUMP_POINT,
+        DSTAR_LITE,
+        HIERARCHICAL,
+        ANYTIME_ASTAR;
+
+        /** Maps with at least this many cells are planned hierarchically */
+        public static final int HIERARCHICAL_MIN_CELLS = 200 * 200;
+
+        /**
+         * @return the generator to use by default on a map of this size
+         */
+        public static PathGeneratorType forMapSize(int xDimension, int yDimension) {
+            return (long) xDimension * yDimension >= HIERARCHICAL_MIN_CELLS ? HIERARCHICAL : ANYTIME_ASTAR;
+        }
+    }
+    
     private TaskType currentTask = TaskType.EXPLORE;
     private Int2D taskLocation = null;
     private int taskPriority = 0;
@@ -84,7 +121,13 @@ public class MyPlanner implements TWPlanner {
     public MyPlanner(MyAgent me, TWEnvironment environment) {
         this.me = me;
         this.environment = environment;
-        this.pathGenerator = new AstarPathGenerator(environment, me, Integer.MAX_VALUE);
+        this.pathCache = new PathCache(null, environment.getyDimension());
+        this.nearestFinder = new NearestObjectFinder(environment, me);
+        if (me.getMemory() instanceof MyMemory) {
+            ((MyMemory) me.getMemory()).addObstacleListener(pathCache);
+        }
+        setPathGeneratorType(PathGeneratorType.forMapSize(
+                environment.getxDimension(), environment.getyDimension()));
         this.currentGoal = new Int2D(me.getX(), me.getY());
     }
 
@@ -134,7 +177,7 @@ public class MyPlanner implements TWPlanner {
         }
         
         // Generate path to target location
-        return pathGenerator.findPath(me.getX(), me.getY(), taskLocation.x, taskLocation.y);
+        return pathCache.findPath(me.getX(), me.getY(), taskLocation.x, taskLocation.y);
     }
     
     private TWPath generateHoleFillingPlan() {
@@ -159,7 +202,7 @@ public class MyPlanner implements TWPlanner {
         }
         
         // Generate path to target location
-        return pathGenerator.findPath(me.getX(), me.getY(), taskLocation.x, taskLocation.y);
+        return pathCache.findPath(me.getX(), me.getY(), taskLocation.x, taskLocation.y);
     }
     
     private TWPath generateRefuelPlan() {
@@ -184,7 +227,7 @@ public class MyPlanner implements TWPlanner {
         }
         
         // Generate path to target location
-        return pathGenerator.findPath(me.getX(), me.getY(), taskLocation.x, taskLocation.y);
+        return pathCache.findPath(me.getX(), me.getY(), taskLocation.x, taskLocation.y);
     }
     
     private TWPath generateExplorationPlan() {
@@ -194,15 +237,15 @@ public class MyPlanner implements TWPlanner {
         }
         
         // Use A* pathfinding to avoid obstacles
-        TWPath newPath = pathGenerator.findPath(me.getX(), me.getY(), currentGoal.x, currentGoal.y);
-        if (newPath != null && newPath.getpath() != null && !newPath.getpath().isEmpty()) {
+        TWPath newPath = pathCache.findPath(me.getX(), me.getY(), currentGoal.x, currentGoal.y);
+        if (newPath != null && newPath.hasNext()) {
             currentPath = newPath;
             return currentPath;
         }
         
         // If no path found, try to generate new goal
         generateNextGoal();
-        currentPath = pathGenerator.findPath(me.getX(), me.getY(), currentGoal.x, currentGoal.y);
+        currentPath = pathCache.findPath(me.getX(), me.getY(), currentGoal.x, currentGoal.y);
         return currentPath;
     }
     
@@ -327,15 +370,14 @@ public class MyPlanner implements TWPlanner {
 
     @Override
     public TWDirection execute() {
-        if (currentPath == null || currentPath.getpath().isEmpty()) {
+        if (currentPath == null || !currentPath.hasNext()) {
             currentPath = generatePlan();
-            if (currentPath == null || currentPath.getpath().isEmpty()) {
+            if (currentPath == null || !currentPath.hasNext()) {
                 return TWDirection.Z;
             }
         }
         
-        TWPathStep step = currentPath.getpath().removeFirst();
-        return step.getDirection();
+        return currentPath.popDirection();
     }
 
     public boolean hasFoundFuelStation() {
@@ -346,8 +388,66 @@ public class MyPlanner implements TWPlanner {
         return fuelStation;
     }
 
-    public AstarPathGenerator getPathGenerator() {
-        return pathGenerator;
+    /**
+     * @return the path generator, wrapped in this agent's path cache
+     */
+    public TWPathGenerator getPathGenerator() {
+        return pathCache;
+    }
+
+    /**
+     * Nearest remembered object of the given type by walking distance, found
+     * together with the path to it in a single search.
+     *
+     * @return the target and path, or null if none can be reached within
+     * the finder's expansion cap
+     */
+    public NearestObjectFinder.Result findNearest(Class<?> type) {
+        return nearestFinder.findNearest(type);
+    }
+
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    public PathGeneratorType getPathGeneratorType() {
+        return pathGeneratorType;
+    }
+
+    /**
+     * Switches the path generator used for all future plans.
+     */
+    public void setPathGeneratorType(PathGeneratorType type) {
+        switch (type) {
+            case JUMP_POINT:
+                this.pathGenerator = new JumpPointPathGenerator(environment, me);
+                break;
+            case DSTAR_LITE:
+                if (dStarLite == null) {
+                    dStarLite = new DStarLitePathGenerator(environment, me);
+                }
+                this.pathGenerator = dStarLite;
+                break;
+            case HIERARCHICAL:
+                if (hierarchical == null) {
+                    hierarchical = new HierarchicalPathGenerator(environment, me);
+                }
+                this.pathGenerator = hierarchical;
+                break;
+            case ANYTIME_ASTAR:
+                if (anytime == null) {
+                    anytime = new AnytimeAstarPathGenerator(environment, me);
+                }
+                this.pathGenerator = anytime;
+                break;
+            case ASTAR:
+            default:
+                this.pathGenerator = new AstarPathGenerator(environment, me, Integer.MAX_VALUE);
+                break;
+        }
+        this.pathCache.setGenerator(pathGenerator);
+        this.pathGeneratorType = type;
+        this.currentPath = null;
     }
 
     public void setFuelStation(TWFuelStation station) {
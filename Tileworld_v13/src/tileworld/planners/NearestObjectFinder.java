@@ -0,0 +1,159 @@
+package tileworld.planners;
+
+import tileworld.agent.TWAgent;
+import tileworld.environment.TWCellType;
+import tileworld.environment.TWEntity;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * NearestObjectFinder
+ *
+ * Description:
+ *
+ * Finds the closest remembered object of a given type by walking distance,
+ * not straight line distance. A single breadth first search grows out of the
+ * agent over the cells its memory does not block and stops at the first cell
+ * whose remembered object is of the requested type. The search tree already
+ * holds the route, so the target and its path come back together: one search
+ * per decision, and targets hidden behind obstacles are never picked just
+ * because they look close.
+ *
+ * Uses the thread's SearchWorkspace for visited marks, parents and the FIFO
+ * queue. Cells memory has never seen count as free, so with nothing of the
+ * type remembered the search would flood the whole map; it therefore gives
+ * up after maxExpansions cells, and the caller explores instead. Cells are
+ * matched on memory's cell types, the object is only read on a match.
+ */
+public class NearestObjectFinder {
+
+    /**
+     * A target and the path to it. The path follows the usual layout (first
+     * step from the agent's cell, target cell not included), so it is empty
+     * when the agent already stands on the target.
+     */
+    public static class Result {
+        private final TWEntity target;
+        private final TWPath path;
+
+        public Result(TWEntity target, TWPath path) {
+            this.target = target;
+            this.path = path;
+        }
+
+        public TWEntity getTarget() {
+            return target;
+        }
+
+        public TWPath getPath() {
+            return path;
+        }
+    }
+
+    public static final int DEFAULT_MAX_EXPANSIONS = 4096;
+
+    private final TWEnvironment map;
+    private final TWAgent agent;
+    private int maxExpansions;
+
+    public NearestObjectFinder(TWEnvironment map, TWAgent agent) {
+        this(map, agent, DEFAULT_MAX_EXPANSIONS);
+    }
+
+    /**
+     * @param maxExpansions cells looked at per search, 0 for no limit
+     */
+    public NearestObjectFinder(TWEnvironment map, TWAgent agent, int maxExpansions) {
+        this.map = map;
+        this.agent = agent;
+        this.maxExpansions = maxExpansions;
+    }
+
+    public void setMaxExpansions(int maxExpansions) {
+        this.maxExpansions = maxExpansions;
+    }
+
+    /**
+     * @param type class of object wanted, TWTile or TWHole typically
+     * @return the nearest reachable remembered object of that type and the
+     * path to it, or null if memory holds none that can be reached within
+     * maxExpansions cells
+     */
+    public Result findNearest(Class<?> type) {
+        return findNearest(agent.getX(), agent.getY(), type, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param sx x coordinate to search from
+     * @param sy y coordinate to search from
+     * @param type class of object wanted
+     * @param maxDistance give up beyond this many steps
+     * @return the nearest reachable remembered object of that type and the
+     * path to it, or null if there is none within maxDistance and
+     * maxExpansions cells
+     */
+    public Result findNearest(int sx, int sy, Class<?> type, int maxDistance) {
+        int width = map.getxDimension();
+        int height = map.getyDimension();
+        SearchWorkspace ws = SearchWorkspace.forThread(width, height);
+        ws.reset();
+        int[] queue = ws.getQueue();
+        byte[] cellTypes = agent.getMemory().getCellTypes();
+        byte wanted = TWCellType.ofClass(type);
+        int limit = maxExpansions > 0 ? maxExpansions : Integer.MAX_VALUE;
+
+        int start = ws.index(sx, sy);
+        ws.setParent(start, -1);
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+
+        while (head < tail && head < limit) {
+            int current = queue[head++];
+            int cx = ws.x(current);
+            int cy = ws.y(current);
+
+            byte cellType = cellTypes[current];
+            if (cellType == wanted || (wanted < 0 && cellType != TWCellType.EMPTY)) {
+                Object o = agent.getMemory().getMemoryGrid().get(cx, cy);
+                if (type.isInstance(o)) {
+                    return new Result((TWEntity) o, buildPath(ws, start, current));
+                }
+            }
+            if (ws.getDepth(current) >= maxDistance) {
+                continue;
+            }
+
+            tail = expand(ws, queue, tail, cellTypes, current, cx + 1, cy);
+            tail = expand(ws, queue, tail, cellTypes, current, cx - 1, cy);
+            tail = expand(ws, queue, tail, cellTypes, current, cx, cy + 1);
+            tail = expand(ws, queue, tail, cellTypes, current, cx, cy - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Queues x,y if it is on the map, new and not blocked.
+     *
+     * @return the new tail of the queue
+     */
+    private int expand(SearchWorkspace ws, int[] queue, int tail, byte[] cellTypes, int current, int x, int y) {
+        if (!map.isInBounds(x, y)) {
+            return tail;
+        }
+        int next = ws.index(x, y);
+        if (ws.isVisited(next) || cellTypes[next] == TWCellType.OBSTACLE) {
+            return tail;
+        }
+        ws.setParent(next, current);
+        queue[tail++] = next;
+        return tail;
+    }
+
+    private TWPath buildPath(SearchWorkspace ws, int start, int target) {
+        TWPath path = new TWPath(ws.x(target), ws.y(target));
+        for (int c = ws.getParent(target); c >= 0; c = ws.getParent(c)) {
+            path.prependStep(ws.x(c), ws.y(c));
+        }
+        return path;
+    }
+}
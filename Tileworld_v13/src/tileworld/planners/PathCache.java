@@ -0,0 +1,336 @@
+package tileworld.planners;
+
+import java.util.Arrays;
+import tileworld.agent.MyMemory;
+
+/**
+ * PathCache
+ *
+ * Description:
+ *
+ * A TWPathGenerator that remembers the paths produced by another generator.
+ * The agent handlers ask for a path on every think(), use the first step and
+ * throw the rest away; on the next step they ask again from the next cell of
+ * that same path. So each cached path is stored under (cell, goal) for every
+ * cell along it. Any suffix of a path the generator returned is itself a
+ * valid path to the same goal, so the follow-up requests are answered without
+ * searching. It is only as short as the path it came from: shortest from A*,
+ * near shortest from the hierarchical generator.
+ *
+ * Every entry is tagged with the cells it crosses (plus the goal). It stays
+ * valid until the agent's memory records a new obstacle on one of those cells
+ * (see MyMemory.ObstacleListener). Obstacles appearing anywhere else,
+ * or disappearing, leave it alone.
+ *
+ * Both lookups are open addressing tables of primitive keys, like the
+ * announcement set of TWMessageBus, so a lookup boxes nothing. The (cell,
+ * goal) table also holds how far along its path the cell is, so a hit goes
+ * straight to the right step. Invalidated entries are not taken out of it,
+ * they are skipped on lookup and overwritten by the next path stored there.
+ *
+ * Hit/miss counters show how many searches the cache saved.
+ */
+public class PathCache implements TWPathGenerator, MyMemory.ObstacleListener {
+
+    /** Upper bound on stored paths, the cache is emptied when it is reached */
+    private static final int MAX_ENTRIES = 64;
+
+    private static final long EMPTY = -1;
+
+    private TWPathGenerator generator;
+    private final int yDimension;
+
+    /** open addressing table of (start cell << 32 | goal cell), EMPTY marks a free slot */
+    private long[] keys = new long[64];
+    /** per slot of keys: the entry, and the offset of the start cell along it */
+    private Entry[] keyEntries = new Entry[64];
+    private int[] keyOffsets = new int[64];
+    private int keyCount;
+
+    /** open addressing table of the cells stored paths cross, -1 marks a free slot */
+    private int[] cellKeys = new int[64];
+    /** per slot of cellKeys: first crossing of that cell, -1 for none */
+    private int[] cellHeads = new int[64];
+    private int cellCount;
+    /** crossings: the entry, and the next crossing of the same cell (-1 ends) */
+    private Entry[] crossEntries = new Entry[64];
+    private int[] crossNext = new int[64];
+    private int crossCount;
+    private int entries;
+
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    /**
+     * One cached path, dropped as a whole by clearing valid.
+     */
+    private static class Entry {
+        final TWPath path;
+        boolean valid = true;
+
+        Entry(TWPath path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * @param generator the generator to cache, called on a miss
+     * @param yDimension height of the map, used to number the cells
+     */
+    public PathCache(TWPathGenerator generator, int yDimension) {
+        this.generator = generator;
+        this.yDimension = yDimension;
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(cellKeys, -1);
+    }
+
+    /**
+     * Replaces the underlying generator and drops every cached path.
+     */
+    public void setGenerator(TWPathGenerator generator) {
+        this.generator = generator;
+        clear();
+    }
+
+    public TWPathGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * @see TWPathGenerator#findPath(int, int, int, int)
+     */
+    public TWPath findPath(int sx, int sy, int tx, int ty) {
+        int s = findKey(key(cell(sx, sy), cell(tx, ty)));
+        if (s >= 0 && keyEntries[s].valid) {
+            hits++;
+            return copyFrom(keyEntries[s], keyOffsets[s]);
+        }
+
+        misses++;
+        TWPath path = generator.findPath(sx, sy, tx, ty);
+        if (path != null && path.hasNext() && reachesGoal(path, tx, ty)) {
+            store(path, tx, ty);
+        }
+        return path;
+    }
+
+    /**
+     * Called by the agent's memory when it records an obstacle on a cell that
+     * was not remembered as blocked. Invalidates only the paths through it.
+     */
+    public void obstacleRecorded(int x, int y) {
+        int s = findCell(cell(x, y));
+        if (s < 0) {
+            return;
+        }
+        for (int c = cellHeads[s]; c >= 0; c = crossNext[c]) {
+            Entry e = crossEntries[c];
+            if (e.valid) {
+                e.valid = false;
+                invalidations++;
+            }
+        }
+        cellHeads[s] = -1;
+    }
+
+    /**
+     * Forgotten obstacles do not make a cached path any less valid, so
+     * nothing is dropped.
+     */
+    public void obstacleRemoved(int x, int y) {
+    }
+
+    /**
+     * Drops every cached path, counters are kept.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(keyEntries, null);
+        keyCount = 0;
+        Arrays.fill(cellKeys, -1);
+        cellCount = 0;
+        Arrays.fill(crossEntries, 0, crossCount, null);
+        crossCount = 0;
+        entries = 0;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    private void store(TWPath path, int tx, int ty) {
+        if (entries >= MAX_ENTRIES) {
+            clear();
+        }
+        int n = path.size();
+        //step i of the path is taken from cells[i], the last one is the goal
+        int[] cells = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            cells[i] = cell(path.getX(i), path.getY(i));
+        }
+        cells[n] = cell(tx, ty);
+        Entry e = new Entry(new TWPath(path, 0));
+        entries++;
+
+        for (int i = 0; i <= n; i++) {
+            if (i < n) {
+                putKey(key(cells[i], cells[n]), e, i);
+            }
+            addCrossing(cells[i], e);
+        }
+    }
+
+    /**
+     * Files e under key, starting offset steps along its path. An older
+     * entry filed there is dropped as a whole.
+     */
+    private void putKey(long key, Entry e, int offset) {
+        if ((keyCount + 1) * 2 > keys.length) {
+            growKeys();
+        }
+        int s = keySlot(key);
+        while (keys[s] != EMPTY && keys[s] != key) {
+            s = (s + 1) & (keys.length - 1);
+        }
+        if (keys[s] == EMPTY) {
+            keys[s] = key;
+            keyCount++;
+        } else if (keyEntries[s] != e) {
+            keyEntries[s].valid = false;
+        }
+        keyEntries[s] = e;
+        keyOffsets[s] = offset;
+    }
+
+    /**
+     * @return the slot of key in keys, -1 if it is not there
+     */
+    private int findKey(long key) {
+        for (int s = keySlot(key); ; s = (s + 1) & (keys.length - 1)) {
+            if (keys[s] == key) {
+                return s;
+            } else if (keys[s] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void growKeys() {
+        long[] oldKeys = keys;
+        Entry[] oldEntries = keyEntries;
+        int[] oldOffsets = keyOffsets;
+        keys = new long[oldKeys.length * 2];
+        keyEntries = new Entry[keys.length];
+        keyOffsets = new int[keys.length];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = keySlot(oldKeys[i]);
+                while (keys[s] != EMPTY) {
+                    s = (s + 1) & (keys.length - 1);
+                }
+                keys[s] = oldKeys[i];
+                keyEntries[s] = oldEntries[i];
+                keyOffsets[s] = oldOffsets[i];
+            }
+        }
+    }
+
+    private void addCrossing(int cell, Entry e) {
+        if ((cellCount + 1) * 2 > cellKeys.length) {
+            growCells();
+        }
+        int s = cellSlot(cell);
+        while (cellKeys[s] != -1 && cellKeys[s] != cell) {
+            s = (s + 1) & (cellKeys.length - 1);
+        }
+        if (cellKeys[s] == -1) {
+            cellKeys[s] = cell;
+            cellHeads[s] = -1;
+            cellCount++;
+        }
+        if (crossCount == crossEntries.length) {
+            crossEntries = Arrays.copyOf(crossEntries, crossCount * 2);
+            crossNext = Arrays.copyOf(crossNext, crossCount * 2);
+        }
+        crossEntries[crossCount] = e;
+        crossNext[crossCount] = cellHeads[s];
+        cellHeads[s] = crossCount++;
+    }
+
+    /**
+     * @return the slot of cell in cellKeys, -1 if it is not there
+     */
+    private int findCell(int cell) {
+        for (int s = cellSlot(cell); ; s = (s + 1) & (cellKeys.length - 1)) {
+            if (cellKeys[s] == cell) {
+                return s;
+            } else if (cellKeys[s] == -1) {
+                return -1;
+            }
+        }
+    }
+
+    private void growCells() {
+        int[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        cellKeys = new int[oldKeys.length * 2];
+        cellHeads = new int[cellKeys.length];
+        Arrays.fill(cellKeys, -1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != -1) {
+                int s = cellSlot(oldKeys[i]);
+                while (cellKeys[s] != -1) {
+                    s = (s + 1) & (cellKeys.length - 1);
+                }
+                cellKeys[s] = oldKeys[i];
+                cellHeads[s] = oldHeads[i];
+            }
+        }
+    }
+
+    private int keySlot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (keys.length - 1);
+    }
+
+    private int cellSlot(int cell) {
+        long h = cell * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (cellKeys.length - 1);
+    }
+
+    /**
+     * Budgeted generators may return a partial path towards the goal, which
+     * must not be served later as if it got there.
+     */
+    private static boolean reachesGoal(TWPath path, int tx, int ty) {
+        int last = path.size() - 1;
+        return path.getX(last) + path.getDirection(last).dx == tx
+                && path.getY(last) + path.getDirection(last).dy == ty;
+    }
+
+    /**
+     * Builds a fresh TWPath from the given offset, callers consume the path
+     * they get so the cached steps are never handed out directly.
+     */
+    private TWPath copyFrom(Entry e, int offset) {
+        return new TWPath(e.path, offset);
+    }
+
+    private int cell(int x, int y) {
+        return x * yDimension + y;
+    }
+
+    private static long key(int start, int goal) {
+        return ((long) start << 32) | (goal & 0xffffffffL);
+    }
+}
@@ -0,0 +1,301 @@
+package tileworld.planners;
+
+import java.util.Arrays;
+
+/**
+ * SearchWorkspace
+ *
+ * Description:
+ *
+ * Scratch space for grid searches, stored as primitive arrays indexed by
+ * x * height + y instead of one Node object per cell. Every cell carries the
+ * generation of the search that last touched it, so starting a new search is
+ * O(1): bump the generation and every cell reads as unvisited again. Stale
+ * costs and parents from an earlier search can never leak into the next one.
+ *
+ * One workspace is kept per thread (see forThread) and shared by every path
+ * generator running on that thread, so the cost no longer scales with the
+ * number of agents. A workspace must not be used by two searches at once.
+ *
+ * The open list is an indexed binary min-heap on f = g + h with ties broken by
+ * insertion order; closed cells are marked in the same heap index array.
+ * Breadth first searches use a plain FIFO queue (getQueue) instead.
+ */
+public class SearchWorkspace {
+
+    private static final ThreadLocal<SearchWorkspace> PER_THREAD = new ThreadLocal<SearchWorkspace>();
+
+    /** heapIndex value of a cell that is neither open nor closed */
+    private static final int UNSEEN = -1;
+    /** heapIndex value of a cell that has been fully searched */
+    private static final int CLOSED = -2;
+
+    private final int width;
+    private final int height;
+
+    /** Generation of the current search, a cell is live if stamp[i] == generation */
+    private int generation;
+    private final int[] stamp;
+    /** Index of the cell we reached this one from, -1 for none */
+    private final int[] parent;
+    /** Path cost from the start */
+    private final float[] g;
+    /** Priority in the open heap, g plus heuristic */
+    private final float[] f;
+    /** Search depth, number of steps from the start */
+    private final int[] depth;
+    /** Slot in the open heap, or UNSEEN / CLOSED */
+    private final int[] heapIndex;
+    /** Insertion counter stamped when a cell enters the heap, breaks ties on f */
+    private final int[] order;
+
+    private final int[] heap;
+    private int size;
+    private int insertions;
+    /** FIFO of cell indices for breadth first searches, made on first use */
+    private int[] queue;
+
+    /**
+     * Returns the workspace for the calling thread, reallocating it if the
+     * map dimensions differ from the last request.
+     *
+     * @param width x dimension of the map
+     * @param height y dimension of the map
+     * @return a workspace large enough for the map
+     */
+    public static SearchWorkspace forThread(int width, int height) {
+        SearchWorkspace ws = PER_THREAD.get();
+        if (ws == null || ws.width != width || ws.height != height) {
+            ws = new SearchWorkspace(width, height);
+            PER_THREAD.set(ws);
+        }
+        return ws;
+    }
+
+    public SearchWorkspace(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int n = width * height;
+        stamp = new int[n];
+        parent = new int[n];
+        g = new float[n];
+        f = new float[n];
+        depth = new int[n];
+        heapIndex = new int[n];
+        order = new int[n];
+        heap = new int[n];
+        generation = 0;
+    }
+
+    /**
+     * Starts a new search. Invalidates every cell in O(1) and empties the
+     * open heap.
+     */
+    public void reset() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            //only happens after two billion searches, just start over
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        size = 0;
+        insertions = 0;
+    }
+
+    /**
+     * @return a queue with room for every cell, for breadth first searches.
+     * Holds whatever the last search left in it.
+     */
+    public int[] getQueue() {
+        if (queue == null) {
+            queue = new int[width * height];
+        }
+        return queue;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int index(int x, int y) {
+        return x * height + y;
+    }
+
+    public int x(int index) {
+        return index / height;
+    }
+
+    public int y(int index) {
+        return index % height;
+    }
+
+    /**
+     * Lazily resets a cell the first time it is touched in this search.
+     */
+    private void touch(int i) {
+        if (stamp[i] != generation) {
+            stamp[i] = generation;
+            g[i] = Float.MAX_VALUE;
+            f[i] = Float.MAX_VALUE;
+            parent[i] = -1;
+            depth[i] = 0;
+            heapIndex[i] = UNSEEN;
+        }
+    }
+
+    /**
+     * @return true if the cell has been touched by the current search
+     */
+    public boolean isVisited(int i) {
+        return stamp[i] == generation;
+    }
+
+    public float getCost(int i) {
+        touch(i);
+        return g[i];
+    }
+
+    public void setCost(int i, float cost) {
+        touch(i);
+        g[i] = cost;
+    }
+
+    public int getParent(int i) {
+        touch(i);
+        return parent[i];
+    }
+
+    public int getDepth(int i) {
+        touch(i);
+        return depth[i];
+    }
+
+    /**
+     * Sets the parent of a cell and derives its depth from the parent.
+     *
+     * @return the depth of the cell
+     */
+    public int setParent(int i, int p) {
+        touch(i);
+        parent[i] = p;
+        depth[i] = (p < 0) ? 0 : depth[p] + 1;
+        return depth[i];
+    }
+
+    public boolean isOpen(int i) {
+        return stamp[i] == generation && heapIndex[i] >= 0;
+    }
+
+    public boolean isClosed(int i) {
+        return stamp[i] == generation && heapIndex[i] == CLOSED;
+    }
+
+    /**
+     * Marks a cell as fully searched. The cell must not be in the open heap.
+     */
+    public void close(int i) {
+        touch(i);
+        heapIndex[i] = CLOSED;
+    }
+
+    /**
+     * Removes the closed mark from a cell.
+     */
+    public void unclose(int i) {
+        if (isClosed(i)) {
+            heapIndex[i] = UNSEEN;
+        }
+    }
+
+    public int openSize() {
+        return size;
+    }
+
+    /**
+     * @return the open cell with the smallest f, -1 if the heap is empty
+     */
+    public int firstOpen() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /**
+     * Adds a cell to the open heap with the given priority.
+     *
+     * @param i cell index
+     * @param priority f value of the cell
+     */
+    public void addToOpen(int i, float priority) {
+        touch(i);
+        f[i] = priority;
+        order[i] = insertions++;
+        heap[size] = i;
+        heapIndex[i] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    /**
+     * Removes a cell from the open heap, does nothing if it isn't there.
+     */
+    public void removeFromOpen(int i) {
+        if (!isOpen(i)) {
+            return;
+        }
+        int slot = heapIndex[i];
+        size--;
+        int last = heap[size];
+        heapIndex[i] = UNSEEN;
+        if (slot != size) {
+            heap[slot] = last;
+            heapIndex[last] = slot;
+            siftDown(slot);
+            siftUp(heapIndex[last]);
+        }
+    }
+
+    private boolean less(int a, int b) {
+        if (f[a] != f[b]) {
+            return f[a] < f[b];
+        }
+        return order[a] < order[b];
+    }
+
+    private void siftUp(int slot) {
+        int cell = heap[slot];
+        while (slot > 0) {
+            int p = (slot - 1) >> 1;
+            if (!less(cell, heap[p])) {
+                break;
+            }
+            heap[slot] = heap[p];
+            heapIndex[heap[slot]] = slot;
+            slot = p;
+        }
+        heap[slot] = cell;
+        heapIndex[cell] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int cell = heap[slot];
+        int half = size >> 1;
+        while (slot < half) {
+            int child = (slot << 1) + 1;
+            int right = child + 1;
+            if (right < size && less(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!less(heap[child], cell)) {
+                break;
+            }
+            heap[slot] = heap[child];
+            heapIndex[heap[slot]] = slot;
+            slot = child;
+        }
+        heap[slot] = cell;
+        heapIndex[cell] = slot;
+    }
+}
@@ -4,8 +4,11 @@
  */
 package tileworld.planners;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 import tileworld.environment.TWDirection;
 
 /**
@@ -21,15 +24,39 @@ import tileworld.environment.TWDirection;
  *
  * A class to store a path which can be used to move the agent
  *
- * The path is a linked list of PathSteps, Each path step is and x,y coordinate and a direction.
+ * The path is a sequence of steps, each step is an x,y coordinate and a
+ * direction. Steps are kept in two primitive arrays (coordinates packed into
+ * one int, directions as bytes) between a read cursor and an end index, so a
+ * path of any length is three objects, prepending and popping are O(1) and
+ * any step can be read by index. Coordinates must fit in 16 bits.
+ *
+ * TWPathStep objects are only created when asked for (popNext, getStep or
+ * the getpath() list view, which is kept for older callers).
  *
  */
 public class TWPath {
 
+    private static final TWDirection[] DIRECTIONS = TWDirection.values();
+
     /**
-     * The steps of the path.
+     * Packed coordinates (x << 16 | y) and direction ordinals of the steps,
+     * live between head (the read cursor) and tail.
      */
-    private LinkedList<TWPathStep> path;
+    private int[] cells;
+    private byte[] directions;
+    private int head, tail;
+
+    /**
+     * Cells on the remaining path, over the bounding box of the path. Built on
+     * the first contains() call and kept up to date afterwards; null when it
+     * has to be rebuilt.
+     */
+    private BitSet index;
+    private int indexX, indexY, indexHeight;
+    /** true if some cell occurs twice, popping then cannot simply clear a bit */
+    private boolean repeats;
+
+    private StepList view;
 
     /**
      * X and Y coordinate of the last path step added.
@@ -39,21 +66,49 @@ public class TWPath {
     public TWPath(int targetx, int targety) {
         lastAddedX = targetx;
         lastAddedY = targety;
-        this.path = new LinkedList<TWPathStep>();
+        this.cells = new int[16];
+        this.directions = new byte[16];
+        this.head = this.tail = 8;
+    }
+
+    /**
+     * Copies the steps of another path from the given offset on.
+     *
+     * @param other path to copy
+     * @param from index of the first step to copy
+     */
+    public TWPath(TWPath other, int from) {
+        int n = Math.max(0, other.size() - from);
+        this.cells = new int[n + 16];
+        this.directions = new byte[n + 16];
+        this.head = 8;
+        this.tail = 8 + n;
+        System.arraycopy(other.cells, other.head + from, cells, head, n);
+        System.arraycopy(other.directions, other.head + from, directions, head, n);
+        this.lastAddedX = other.lastAddedX;
+        this.lastAddedY = other.lastAddedY;
     }
 
     /**
-     * @return the path
+     * @return a list view of the remaining steps, changes to it change the
+     * path
      */
-    public LinkedList<TWPathStep> getpath() {
-        return path;
+    public StepList getpath() {
+        if (view == null) {
+            view = new StepList();
+        }
+        return view;
     }
 
     /**
      * @param path the path to set
      */
-    public void setPath(LinkedList<TWPathStep> path) {
-        this.path = path;
+    public void setPath(List<TWPathStep> path) {
+        head = tail = cells.length / 2;
+        index = null;
+        for (TWPathStep step : path) {
+            appendStep(step);
+        }
     }
 
     /**
@@ -63,18 +118,37 @@ public class TWPath {
      */
     public void modifyPath(ArrayList<TWPathStep> pathSubSet, int startIndex) {
         for (int i = 0; i < pathSubSet.size(); i++) {
-            path.set(i+startIndex, pathSubSet.get(i));
+            set(i + startIndex, pathSubSet.get(i));
         }
     }
 
     /**
-     * Gets step of plan at specified index, not used and is expensive in linked list
-     * Her for completeness.
+     * @return number of steps left
+     */
+    public int size() {
+        return tail - head;
+    }
+
+    /**
+     * Gets step of plan at specified index, O(1).
      * @param index
      * @return
      */
     public TWPathStep getStep(int index) {
-        return path.get(index);
+        checkIndex(index);
+        return new TWPathStep(getX(index), getY(index), getDirection(index));
+    }
+
+    public int getX(int index) {
+        return cells[head + index] >>> 16;
+    }
+
+    public int getY(int index) {
+        return cells[head + index] & 0xffff;
+    }
+
+    public TWDirection getDirection(int index) {
+        return DIRECTIONS[directions[head + index]];
     }
 
     private void updateLastAdded(int x, int y) {
@@ -83,36 +157,58 @@ public class TWPath {
     }
 
     public void appendStep(TWPathStep d) {
-        path.addLast(d);
-        updateLastAdded(d.getX(), d.getY());
+        appendStep(d.getX(), d.getY(), d.getDirection());
     }
 
     //do we need this??
     public void prependStep(TWPathStep d) {
-        path.addFirst(d);
-        updateLastAdded(d.getX(), d.getY());
-
+        prependStep(d.getX(), d.getY(), d.getDirection());
     }
 
     public void appendStep(int x, int y) {
-        this.appendStep(new TWPathStep(x, y, this.getDirection(this.lastAddedX, this.lastAddedY, x, y)));
+        this.appendStep(x, y, this.getDirection(this.lastAddedX, this.lastAddedY, x, y));
     }
 
     //do we need this??
     //We are adding in reverse order so go from current x,y to last added to get direction
     public void prependStep(int x, int y) {
+        this.prependStep(x, y, this.getReverseDirection(this.lastAddedX, this.lastAddedY, x, y));
+    }
 
-        this.prependStep(new TWPathStep(x, y, this.getReverseDirection(this.lastAddedX, this.lastAddedY, x, y)));
+    public void appendStep(int x, int y, TWDirection direction) {
+        if (tail == cells.length) {
+            grow();
+        }
+        cells[tail] = pack(x, y);
+        directions[tail] = (byte) direction.ordinal();
+        tail++;
+        indexAdd(x, y);
+        updateLastAdded(x, y);
     }
 
-    public boolean contains(int x, int y) {
-        for (TWPathStep step : path) {
-            if (step.getX() == x && step.getY() == y) {
-                return true;
-            }
+    public void prependStep(int x, int y, TWDirection direction) {
+        if (head == 0) {
+            grow();
         }
-        return false;
+        head--;
+        cells[head] = pack(x, y);
+        directions[head] = (byte) direction.ordinal();
+        indexAdd(x, y);
+        updateLastAdded(x, y);
+    }
 
+    /**
+     * O(1) after the first call on a path.
+     */
+    public boolean contains(int x, int y) {
+        if (index == null) {
+            buildIndex();
+        }
+        int ix = x - indexX, iy = y - indexY;
+        if (ix < 0 || iy < 0 || iy >= indexHeight) {
+            return false;
+        }
+        return index.get(ix * indexHeight + iy);
     }
 
     /**
@@ -161,10 +257,231 @@ public class TWPath {
      * @return
      */
     public TWPathStep popNext() {
-        return this.path.pop();
+        if (head == tail) {
+            throw new NoSuchElementException();
+        }
+        TWPathStep step = getStep(0);
+        removeFirstStep();
+        return step;
+    }
+
+    /**
+     * Removes the first step and returns only its direction, no objects are
+     * created.
+     * @return
+     */
+    public TWDirection popDirection() {
+        if (head == tail) {
+            throw new NoSuchElementException();
+        }
+        TWDirection d = getDirection(0);
+        removeFirstStep();
+        return d;
     }
 
     public boolean hasNext() {
-        return this.path.peekFirst() != null;
+        return head != tail;
+    }
+
+    private void removeFirstStep() {
+        if (index != null) {
+            if (repeats) {
+                index = null;
+            } else {
+                int c = cells[head];
+                index.clear(((c >>> 16) - indexX) * indexHeight + ((c & 0xffff) - indexY));
+            }
+        }
+        head++;
+    }
+
+    private void set(int i, TWPathStep step) {
+        checkIndex(i);
+        cells[head + i] = pack(step.getX(), step.getY());
+        directions[head + i] = (byte) step.getDirection().ordinal();
+        index = null;
+    }
+
+    private void insert(int i, TWPathStep step) {
+        if (i == 0) {
+            prependStep(step);
+        } else if (i == size()) {
+            appendStep(step);
+        } else {
+            if (tail == cells.length) {
+                grow();
+            }
+            System.arraycopy(cells, head + i, cells, head + i + 1, tail - head - i);
+            System.arraycopy(directions, head + i, directions, head + i + 1, tail - head - i);
+            tail++;
+            set(i, step);
+        }
+    }
+
+    private void delete(int i) {
+        checkIndex(i);
+        if (i == 0) {
+            removeFirstStep();
+            return;
+        }
+        System.arraycopy(cells, head + i + 1, cells, head + i, tail - head - i - 1);
+        System.arraycopy(directions, head + i + 1, directions, head + i, tail - head - i - 1);
+        tail--;
+        index = null;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= tail - head) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + (tail - head));
+        }
+    }
+
+    /**
+     * Doubles the arrays and recentres the steps, so both ends have room.
+     */
+    private void grow() {
+        int n = tail - head;
+        int capacity = Math.max(16, cells.length * 2);
+        int newHead = (capacity - n) / 2;
+        int[] c = new int[capacity];
+        byte[] d = new byte[capacity];
+        System.arraycopy(cells, head, c, newHead, n);
+        System.arraycopy(directions, head, d, newHead, n);
+        cells = c;
+        directions = d;
+        head = newHead;
+        tail = newHead + n;
+    }
+
+    private void buildIndex() {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = 0, maxY = 0;
+        for (int i = head; i < tail; i++) {
+            int x = cells[i] >>> 16, y = cells[i] & 0xffff;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        if (head == tail) {
+            minX = minY = 0;
+        }
+        indexX = minX;
+        indexY = minY;
+        indexHeight = maxY - minY + 1;
+        index = new BitSet(Math.max(1, (maxX - minX + 1) * indexHeight));
+        repeats = false;
+        for (int i = head; i < tail; i++) {
+            int bit = ((cells[i] >>> 16) - indexX) * indexHeight + ((cells[i] & 0xffff) - indexY);
+            if (index.get(bit)) {
+                repeats = true;
+            }
+            index.set(bit);
+        }
+    }
+
+    private void indexAdd(int x, int y) {
+        if (index == null) {
+            return;
+        }
+        int ix = x - indexX, iy = y - indexY;
+        if (ix < 0 || iy < 0 || iy >= indexHeight) {
+            //outside the box, rebuild on the next contains()
+            index = null;
+            return;
+        }
+        int bit = ix * indexHeight + iy;
+        if (index.get(bit)) {
+            repeats = true;
+        }
+        index.set(bit);
+    }
+
+    private static int pack(int x, int y) {
+        return (x << 16) | (y & 0xffff);
+    }
+
+    /**
+     * List view of the remaining steps, for code written against the old
+     * LinkedList. Reads are O(1); steps are created as they are read.
+     */
+    public class StepList extends AbstractList<TWPathStep> {
+
+        @Override
+        public TWPathStep get(int i) {
+            return getStep(i);
+        }
+
+        @Override
+        public int size() {
+            return TWPath.this.size();
+        }
+
+        @Override
+        public TWPathStep set(int i, TWPathStep step) {
+            TWPathStep old = getStep(i);
+            TWPath.this.set(i, step);
+            return old;
+        }
+
+        @Override
+        public void add(int i, TWPathStep step) {
+            if (i < 0 || i > size()) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+            }
+            insert(i, step);
+            modCount++;
+        }
+
+        @Override
+        public TWPathStep remove(int i) {
+            TWPathStep old = getStep(i);
+            delete(i);
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            head = tail;
+            index = null;
+            modCount++;
+        }
+
+        public TWPathStep getFirst() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return getStep(0);
+        }
+
+        public TWPathStep getLast() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return getStep(size() - 1);
+        }
+
+        public TWPathStep peekFirst() {
+            return isEmpty() ? null : getStep(0);
+        }
+
+        public TWPathStep removeFirst() {
+            modCount++;
+            return popNext();
+        }
+
+        public TWPathStep pop() {
+            return removeFirst();
+        }
+
+        public void addFirst(TWPathStep step) {
+            prependStep(step);
+            modCount++;
+        }
+
+        public void addLast(TWPathStep step) {
+            appendStep(step);
+            modCount++;
+        }
     }
 }